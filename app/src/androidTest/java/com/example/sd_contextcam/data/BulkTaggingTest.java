@@ -0,0 +1,117 @@
+package com.example.sd_contextcam.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tags 10k paths with the old per-photo loop (lookup, insert, reload, link) and with
+ * {@link TagRepository#addTagToPhotoPaths}, checks both leave the same rows behind and
+ * logs the wall time of each; timings are not asserted, since they vary with device load.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BulkTaggingTest {
+    private static final String TAG = "BulkTaggingTest";
+    private static final int PATH_COUNT = 10_000;
+
+    private AppDatabase db;
+    private TagRepository repository;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = AppDatabase.createInMemory(context);
+        repository = new TagRepository(db, context);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void bulkTaggingMatchesPerPhotoLoop() {
+        long loopStart = System.nanoTime();
+        int loopTagged = tagOneByOne("Loop", paths("loop"));
+        long loopMs = (System.nanoTime() - loopStart) / 1_000_000;
+
+        List<Integer> progress = new ArrayList<>();
+        long bulkStart = System.nanoTime();
+        int bulkTagged = repository.addTagToPhotoPaths("Bulk", paths("bulk"),
+                (processed, total) -> progress.add(processed));
+        long bulkMs = (System.nanoTime() - bulkStart) / 1_000_000;
+
+        Log.i(TAG, "Tagging " + PATH_COUNT + " paths: per-photo loop " + loopMs + " ms, bulk " + bulkMs + " ms");
+
+        assertEquals(PATH_COUNT, loopTagged);
+        assertEquals(PATH_COUNT, bulkTagged);
+        assertEquals(2 * PATH_COUNT, count("SELECT COUNT(*) FROM photos"));
+        assertEquals(PATH_COUNT, repository.getPhotoCountForTag(repository.getTagByName("Loop").getId()));
+        assertEquals(PATH_COUNT, repository.getPhotoCountForTag(repository.getTagByName("Bulk").getId()));
+        assertEquals(PATH_COUNT, (int) progress.get(progress.size() - 1));
+    }
+
+    @Test
+    public void bulkTaggingReusesExistingPhotosAndJoins() {
+        List<String> paths = paths("again");
+        assertEquals(PATH_COUNT, repository.addTagToPhotoPaths("Trip", paths, null));
+        // Same tag with a different case, plus duplicates in the input
+        List<String> withDuplicates = new ArrayList<>(paths);
+        withDuplicates.addAll(paths.subList(0, 100));
+        assertEquals(PATH_COUNT, repository.addTagToPhotoPaths("trip", withDuplicates, null));
+
+        assertEquals(PATH_COUNT, count("SELECT COUNT(*) FROM photos"));
+        assertEquals(1, count("SELECT COUNT(*) FROM tags"));
+        assertEquals(PATH_COUNT, count("SELECT COUNT(*) FROM photo_tag_join"));
+    }
+
+    // What BatchSorterAdapter and OnboardingActivity did per photo before the bulk API
+    private int tagOneByOne(String tagName, List<String> paths) {
+        Tag tag = repository.getTagByName(tagName);
+        if (tag == null) {
+            repository.insertTag(new Tag(tagName));
+            tag = repository.getTagByName(tagName);
+        }
+        int tagged = 0;
+        for (String path : paths) {
+            Photo photo = repository.getPhotoByFilePath(path);
+            if (photo == null) {
+                long photoId = repository.insertPhoto(new Photo(path, System.currentTimeMillis()));
+                photo = repository.getPhotoById((int) photoId);
+            }
+            if (photo != null) {
+                repository.addTagToPhoto(photo.getId(), tag.getId());
+                tagged++;
+            }
+        }
+        return tagged;
+    }
+
+    private static List<String> paths(String folder) {
+        List<String> paths = new ArrayList<>(PATH_COUNT);
+        for (int i = 0; i < PATH_COUNT; i++) {
+            paths.add("/storage/emulated/0/DCIM/" + folder + "/IMG_" + i + ".jpg");
+        }
+        return paths;
+    }
+
+    private int count(String sql) {
+        try (Cursor cursor = db.getOpenHelper().getReadableDatabase().query(sql)) {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.sd_contextcam.data;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Group commits: writes queued behind a busy writer are committed together, and a failing
+ * write, including one that swallows a nested transaction's exception, only fails itself.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseWriterTest {
+    private static final int GROUP_SIZE = 10;
+    private static final int FAILING = 5;
+
+    private AppDatabase db;
+    private DatabaseWriter writer;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = AppDatabase.createInMemory(context);
+        writer = db.getWriter();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void throwingWriteOnlyFailsItself() throws Exception {
+        List<CompletableFuture<Long>> writes = submitGroup(i -> {
+            long id = db.tagDao().insertTag(new Tag("tag-" + i));
+            if (i == FAILING) {
+                throw new IllegalArgumentException("bad write");
+            }
+            return id;
+        });
+
+        assertGroupIsolated(writes, IllegalArgumentException.class);
+    }
+
+    @Test
+    public void swallowedNestedFailureIsReportedAndIsolated() throws Exception {
+        List<CompletableFuture<Long>> writes = submitGroup(i -> {
+            if (i == FAILING) {
+                try {
+                    db.runInTransaction((Runnable) () -> {
+                        db.tagDao().insertTag(new Tag("nested"));
+                        throw new IllegalStateException("nested failure");
+                    });
+                } catch (IllegalStateException ignored) {
+                    // Swallowed: the enclosing transaction is still marked failed
+                }
+            }
+            return db.tagDao().insertTag(new Tag("tag-" + i));
+        });
+
+        assertGroupIsolated(writes, DatabaseWriter.RolledBackException.class);
+        assertNull(db.tagDao().getTagByName("nested"));
+    }
+
+    @Test
+    public void swallowedNestedFailureOfASingleWriteIsReported() throws Exception {
+        CompletableFuture<Long> write = writer.submit(() -> {
+            try {
+                db.runInTransaction((Runnable) () -> {
+                    throw new IllegalStateException("nested failure");
+                });
+            } catch (IllegalStateException ignored) {
+                // Swallowed
+            }
+            return db.tagDao().insertTag(new Tag("single"));
+        });
+
+        assertFailsWith(write, DatabaseWriter.RolledBackException.class);
+        assertNull(db.tagDao().getTagByName("single"));
+    }
+
+    private interface IndexedWrite {
+        Long run(int i) throws Exception;
+    }
+
+    // Holds the writer busy until all GROUP_SIZE writes are queued, so they drain as one group
+    private List<CompletableFuture<Long>> submitGroup(IndexedWrite write) throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Long> blocker = writer.submit(() -> {
+            started.countDown();
+            assertTrue(release.await(10, TimeUnit.SECONDS));
+            return 0L;
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        List<CompletableFuture<Long>> writes = new ArrayList<>();
+        for (int i = 0; i < GROUP_SIZE; i++) {
+            int index = i;
+            writes.add(writer.submit(() -> write.run(index)));
+        }
+        release.countDown();
+        blocker.get(10, TimeUnit.SECONDS);
+        return writes;
+    }
+
+    private void assertGroupIsolated(List<CompletableFuture<Long>> writes, Class<? extends Throwable> failure)
+            throws Exception {
+        for (int i = 0; i < GROUP_SIZE; i++) {
+            if (i == FAILING) {
+                assertFailsWith(writes.get(i), failure);
+                assertNull(db.tagDao().getTagByName("tag-" + i));
+            } else {
+                assertTrue(writes.get(i).get(10, TimeUnit.SECONDS) > 0);
+                assertNotNull(db.tagDao().getTagByName("tag-" + i));
+            }
+        }
+
+        // The blocker ran alone, then the queued writes as one group that failed and was retried.
+        // Metrics are updated just after the futures complete.
+        DatabaseWriter.Stats stats = writer.getStats();
+        for (int i = 0; i < 100 && stats.batches < 2; i++) {
+            Thread.sleep(50);
+            stats = writer.getStats();
+        }
+        assertEquals(GROUP_SIZE + 1, stats.writes);
+        assertEquals(2, stats.batches);
+        assertEquals(1, stats.failedBatches);
+        assertEquals(GROUP_SIZE, stats.maxBatchSize);
+        assertEquals(GROUP_SIZE, stats.maxQueueDepth);
+    }
+
+    private static void assertFailsWith(CompletableFuture<?> future, Class<? extends Throwable> failure)
+            throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("Expected " + failure.getSimpleName());
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), failure.isInstance(e.getCause()));
+        }
+    }
+}
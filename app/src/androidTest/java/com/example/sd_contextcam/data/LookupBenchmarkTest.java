@@ -0,0 +1,132 @@
+package com.example.sd_contextcam.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times path, tag-name and newest-first lookups over 100k rows with the schema's indexes, then
+ * again with each index dropped, and logs both. The lookups must use their indexes; the timings
+ * are only logged, since they vary with device load.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LookupBenchmarkTest {
+    private static final String TAG = "LookupBenchmarkTest";
+    private static final int ROWS = 100_000;
+    private static final int LOOKUPS = 200;
+
+    private AppDatabase db;
+    private SupportSQLiteDatabase sqlite;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = AppDatabase.createInMemory(context);
+        sqlite = db.getOpenHelper().getWritableDatabase();
+        sqlite.beginTransaction();
+        try {
+            SupportSQLiteStatement photo = sqlite.compileStatement("INSERT INTO photos " +
+                    "(filePath, timestamp, wifiNetwork, calendarEvent, is_encrypted) VALUES (?, ?, '', '', 0)");
+            SupportSQLiteStatement tag = sqlite.compileStatement("INSERT INTO tags (name, parentId) VALUES (?, -1)");
+            Random random = new Random(42);
+            for (int i = 0; i < ROWS; i++) {
+                photo.bindString(1, path(i));
+                photo.bindLong(2, Math.abs(random.nextLong() % 1_700_000_000_000L));
+                photo.executeInsert();
+                tag.bindString(1, tagName(i));
+                tag.executeInsert();
+            }
+            sqlite.setTransactionSuccessful();
+        } finally {
+            sqlite.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void photoPathLookup() {
+        PhotoDao photoDao = db.photoDao();
+        assertUsesIndex("SELECT * FROM photos WHERE filePath = '" + path(0) + "' LIMIT 1", "index_photos_filePath");
+        long indexed = timeLookups(i -> assertNotNull(photoDao.getPhotoByFilePath(path(i))));
+        sqlite.execSQL("DROP INDEX index_photos_filePath");
+        long scanned = timeLookups(i -> assertNotNull(photoDao.getPhotoByFilePath(path(i))));
+        report("photos.filePath", indexed, scanned);
+    }
+
+    @Test
+    public void tagNameLookupIgnoresCase() {
+        TagDao tagDao = db.tagDao();
+        assertUsesIndex("SELECT * FROM tags WHERE name = 'x' LIMIT 1", "index_tags_name");
+        long indexed = timeLookups(i -> assertNotNull(tagDao.getTagByName(tagName(i).toUpperCase())));
+        sqlite.execSQL("DROP INDEX index_tags_name");
+        long scanned = timeLookups(i -> assertNotNull(tagDao.getTagByName(tagName(i).toUpperCase())));
+        report("tags.name", indexed, scanned);
+    }
+
+    @Test
+    public void newestFirstPage() {
+        PhotoDao photoDao = db.photoDao();
+        long indexed = timeLookups(i -> assertEquals(60,
+                photoDao.getPhotoGridPageBefore(0, Long.MAX_VALUE, Integer.MAX_VALUE, 60).size()));
+        sqlite.execSQL("DROP INDEX index_photos_timestamp_id");
+        long scanned = timeLookups(i -> assertEquals(60,
+                photoDao.getPhotoGridPageBefore(0, Long.MAX_VALUE, Integer.MAX_VALUE, 60).size()));
+        report("photos (timestamp, id)", indexed, scanned);
+    }
+
+    private interface Lookup {
+        void run(int i);
+    }
+
+    // Spread over the table so neither run benefits from hitting the same pages
+    private static long timeLookups(Lookup lookup) {
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            lookup.run((int) ((long) i * ROWS / LOOKUPS));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String column, long indexedNanos, long scannedNanos) {
+        Log.i(TAG, String.format(Locale.US, "%s, %d rows, %d lookups: indexed %.3f ms/lookup, "
+                        + "scan %.3f ms/lookup (%.0fx)", column, ROWS, LOOKUPS,
+                indexedNanos / 1e6 / LOOKUPS, scannedNanos / 1e6 / LOOKUPS, (double) scannedNanos / indexedNanos));
+    }
+
+    private void assertUsesIndex(String sql, String index) {
+        StringBuilder plan = new StringBuilder();
+        try (Cursor cursor = sqlite.query("EXPLAIN QUERY PLAN " + sql)) {
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(cursor.getColumnIndexOrThrow("detail"))).append('\n');
+            }
+        }
+        assertTrue(plan.toString(), plan.toString().contains(index));
+    }
+
+    private static String path(int i) {
+        return "/storage/emulated/0/DCIM/Camera/IMG_" + i + ".jpg";
+    }
+
+    private static String tagName(int i) {
+        return "tag-" + i;
+    }
+}
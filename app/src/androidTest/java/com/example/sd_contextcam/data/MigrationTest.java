@@ -0,0 +1,142 @@
+package com.example.sd_contextcam.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Migrates a version 3 database holding duplicate photo paths and case-duplicate tag names
+ * through every migration to the current schema. Version 3 was never exported, so it is built
+ * here with the DDL Room generated for it. The result is validated against the exported
+ * current schema.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MigrationTest {
+    private static final String TEST_DB = "migration-test";
+    private static final int CURRENT_VERSION = 10;
+
+    @Rule
+    public MigrationTestHelper helper = new MigrationTestHelper(
+            InstrumentationRegistry.getInstrumentation(), AppDatabase.class);
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DB);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(TEST_DB);
+    }
+
+    @Test
+    public void migrate3ToCurrentMergesDuplicates() {
+        try (SQLiteDatabase v3 = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath(TEST_DB), null)) {
+            createVersion3(v3);
+            // Photo 2 repeats photo 1's path; tag 2 repeats tag 1's name in another case and
+            // parents tag 3
+            v3.execSQL("INSERT INTO photos (id, filePath, timestamp, wifiNetwork, calendarEvent, is_encrypted) VALUES " +
+                    "(1, '/dcim/a.jpg', 1000, '', '', 0), (2, '/dcim/a.jpg', 2000, '', '', 0), " +
+                    "(3, '/dcim/b.jpg', 3000, '', '', 0)");
+            v3.execSQL("INSERT INTO tags (id, name, parentId) VALUES " +
+                    "(1, 'Travel', -1), (2, 'travel', -1), (3, 'Japan', 2), (4, 'Food', -1)");
+            v3.execSQL("INSERT INTO photo_tag_join (photoId, tagId) VALUES (1, 1), (2, 2), (2, 4), (3, 2)");
+            v3.setVersion(3);
+        }
+
+        SupportSQLiteDatabase db = helper.runMigrationsAndValidate(TEST_DB, CURRENT_VERSION, false,
+                AppDatabase.ALL_MIGRATIONS);
+
+        assertEquals(List.of("1:/dcim/a.jpg", "3:/dcim/b.jpg"),
+                rows(db, "SELECT id || ':' || filePath FROM photos ORDER BY id"));
+        assertEquals(List.of("1:Travel:-1", "3:Japan:1", "4:Food:-1"),
+                rows(db, "SELECT id || ':' || name || ':' || parentId FROM tags ORDER BY id"));
+        // Links of the dropped rows move to the survivors, merging where they collide
+        assertEquals(List.of("1:1", "1:4", "3:1"),
+                rows(db, "SELECT photoId || ':' || tagId FROM photo_tag_join ORDER BY photoId, tagId"));
+
+        // Derived tables are filled from the surviving rows
+        assertEquals(List.of("3"), rows(db, "SELECT docid FROM tags_fts WHERE tags_fts MATCH 'japan'"));
+        assertEquals(List.of("2"), rows(db, "SELECT SUM(photoCount) FROM photo_day_counts"));
+
+        assertConstraintFails(db, "INSERT INTO photos (filePath, timestamp, wifiNetwork, calendarEvent, is_encrypted) " +
+                "VALUES ('/dcim/a.jpg', 4000, '', '', 0)");
+        assertConstraintFails(db, "INSERT INTO tags (name, parentId) VALUES ('TRAVEL', -1)");
+    }
+
+    @Test
+    public void migrate3ToCurrentWithoutDuplicatesKeepsEverything() {
+        try (SQLiteDatabase v3 = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath(TEST_DB), null)) {
+            createVersion3(v3);
+            v3.execSQL("INSERT INTO photos (id, filePath, timestamp, wifiNetwork, calendarEvent, is_encrypted) VALUES " +
+                    "(1, '/dcim/a.jpg', 1000, '', '', 0), (2, '/dcim/b.jpg', 2000, '', '', 1)");
+            v3.execSQL("INSERT INTO tags (id, name, parentId) VALUES (1, 'Travel', -1), (2, 'Japan', 1)");
+            v3.execSQL("INSERT INTO photo_tag_join (photoId, tagId) VALUES (1, 1), (2, 2)");
+            v3.setVersion(3);
+        }
+
+        SupportSQLiteDatabase db = helper.runMigrationsAndValidate(TEST_DB, CURRENT_VERSION, false,
+                AppDatabase.ALL_MIGRATIONS);
+
+        assertEquals(List.of("1", "2"), rows(db, "SELECT id FROM photos ORDER BY id"));
+        assertEquals(List.of("1:Travel:-1", "2:Japan:1"),
+                rows(db, "SELECT id || ':' || name || ':' || parentId FROM tags ORDER BY id"));
+        assertEquals(List.of("1:1", "2:2"),
+                rows(db, "SELECT photoId || ':' || tagId FROM photo_tag_join ORDER BY photoId"));
+    }
+
+    // Tables and indexes as Room created them at version 3
+    private static void createVersion3(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS `tags` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+                "`name` TEXT, `parentId` INTEGER NOT NULL)");
+        db.execSQL("CREATE TABLE IF NOT EXISTS `photos` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+                "`filePath` TEXT, `timestamp` INTEGER NOT NULL, `latitude` REAL, `longitude` REAL, " +
+                "`wifiNetwork` TEXT, `calendarEvent` TEXT, `is_encrypted` INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS `index_photos_timestamp_id` ON `photos` (`timestamp`, `id`)");
+        db.execSQL("CREATE TABLE IF NOT EXISTS `photo_tag_join` (`photoId` INTEGER NOT NULL, " +
+                "`tagId` INTEGER NOT NULL, PRIMARY KEY(`photoId`, `tagId`), " +
+                "FOREIGN KEY(`photoId`) REFERENCES `photos`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE , " +
+                "FOREIGN KEY(`tagId`) REFERENCES `tags`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+        db.execSQL("CREATE INDEX IF NOT EXISTS `index_photo_tag_join_photoId` ON `photo_tag_join` (`photoId`)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS `index_photo_tag_join_tagId` ON `photo_tag_join` (`tagId`)");
+    }
+
+    private static List<String> rows(SupportSQLiteDatabase db, String sql) {
+        List<String> rows = new ArrayList<>();
+        try (Cursor cursor = db.query(sql)) {
+            while (cursor.moveToNext()) {
+                rows.add(cursor.getString(0));
+            }
+        }
+        return rows;
+    }
+
+    private static void assertConstraintFails(SupportSQLiteDatabase db, String sql) {
+        try {
+            db.execSQL(sql);
+            fail("Expected a constraint violation: " + sql);
+        } catch (SQLiteConstraintException expected) {
+            // The unique index held
+        }
+    }
+}
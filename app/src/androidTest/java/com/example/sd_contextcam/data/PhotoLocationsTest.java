@@ -0,0 +1,300 @@
+package com.example.sd_contextcam.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.sqlite.db.SimpleSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks the photo_locations box and nearest-photo queries against a brute-force scan of a
+ * synthetic 200k-photo library, on the R*Tree and on the indexed-table fallback, and logs how
+ * long each takes next to a plain scan of photos. Timings are not asserted, since they vary with
+ * device load.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PhotoLocationsTest {
+    private static final String TAG = "PhotoLocationsTest";
+    private static final int ROWS = 200_000;
+    private static final int QUERIES = 50;
+    private static final int LIMIT = 100;
+    // Dense clusters where the first search circle is enough; everything else is spread thinly
+    private static final double[][] CITIES = {{48.8566, 2.3522}, {40.7128, -74.0060}, {-33.8688, 151.2093}};
+    private static final double[] HALF_SIZES = {0.02, 0.2, 2, 20};
+    private static final int[] KS = {1, 10, 50};
+
+    private AppDatabase db;
+    private SupportSQLiteDatabase sqlite;
+    private PhotoDao photoDao;
+    // Indexed by id - 1; null latitude means not geotagged
+    private final Double[] latitudes = new Double[ROWS];
+    private final Double[] longitudes = new Double[ROWS];
+    private final long[] timestamps = new long[ROWS];
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = AppDatabase.createInMemory(context);
+        sqlite = db.getOpenHelper().getWritableDatabase();
+        photoDao = db.photoDao();
+
+        Random random = new Random(42);
+        sqlite.beginTransaction();
+        try {
+            SupportSQLiteStatement insert = sqlite.compileStatement("INSERT INTO photos (filePath, timestamp, " +
+                    "latitude, longitude, wifiNetwork, calendarEvent, is_encrypted) VALUES (?, ?, ?, ?, '', '', 0)");
+            for (int i = 0; i < ROWS; i++) {
+                timestamps[i] = Math.abs(random.nextLong() % 1_700_000_000_000L);
+                if (i % 10 != 0) {
+                    if (random.nextBoolean()) {
+                        double[] city = CITIES[random.nextInt(CITIES.length)];
+                        latitudes[i] = city[0] + random.nextGaussian() * 0.05;
+                        longitudes[i] = city[1] + random.nextGaussian() * 0.05;
+                    } else {
+                        latitudes[i] = random.nextDouble() * 120 - 60;
+                        longitudes[i] = random.nextDouble() * 360 - 180;
+                    }
+                }
+                insert.bindString(1, "/storage/emulated/0/DCIM/Camera/IMG_" + i + ".jpg");
+                insert.bindLong(2, timestamps[i]);
+                bindNullable(insert, 3, latitudes[i]);
+                bindNullable(insert, 4, longitudes[i]);
+                assertEquals(i + 1, insert.executeInsert());
+            }
+            sqlite.setTransactionSuccessful();
+        } finally {
+            sqlite.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void rtreeMatchesBruteForce() {
+        assumeTrue("rtree module unavailable on this device", usesRtree());
+        assertQueriesMatchBruteForce();
+    }
+
+    @Test
+    public void indexedTableMatchesBruteForce() {
+        useIndexedTable();
+        assertFalse(usesRtree());
+        assertQueriesMatchBruteForce();
+
+        // The triggers keep the fallback table in step with photos too
+        sqlite.execSQL("UPDATE photos SET latitude = 10.5, longitude = 20.5 WHERE id = 1");
+        sqlite.execSQL("UPDATE photos SET latitude = NULL, longitude = NULL WHERE id = 2");
+        sqlite.execSQL("DELETE FROM photos WHERE id = 3");
+        latitudes[0] = 10.5;
+        longitudes[0] = 20.5;
+        latitudes[1] = longitudes[1] = null;
+        latitudes[2] = longitudes[2] = null;
+        assertEquals(1, ids(photoDao.getNearestPhotoGridItems(10.5, 20.5, 1)).get(0).intValue());
+        assertQueriesMatchBruteForce();
+    }
+
+    @Test
+    public void nearestWidensTheSearchUntilKPhotosAreFound() {
+        // No photo lies north of about 60°, so the first circle at 85° holds nothing and the
+        // radius has to double about a dozen times
+        List<PhotoGridItem> rows = photoDao.getNearestPhotoGridItems(85, 0, 10);
+        assertEquals(bruteForceNearest(85, 0, 10), ids(rows));
+        double nearestLatitude = latitudes[rows.get(0).id - 1];
+        assertTrue(85 - nearestLatitude > PhotoLocations.INITIAL_RADIUS_DEGREES * 1024);
+    }
+
+    @Test
+    public void nearestReturnsEveryGeotaggedPhotoWhenThereAreFewerThanK() {
+        sqlite.execSQL("DELETE FROM photos WHERE id > 4");
+        // id 1 has no location
+        List<Integer> expected = bruteForceNearest(-70, 170, 10, 4);
+        assertEquals(3, expected.size());
+        assertEquals(expected, ids(photoDao.getNearestPhotoGridItems(-70, 170, 10)));
+    }
+
+    @Test
+    public void timing() {
+        Random random = new Random(7);
+        double[][] boxes = new double[QUERIES][];
+        double[][] points = new double[QUERIES][];
+        for (int q = 0; q < QUERIES; q++) {
+            boxes[q] = box(randomPoint(random), 0.2);
+            points[q] = randomPoint(random);
+        }
+        SupportSQLiteQuery[] boxScans = new SupportSQLiteQuery[QUERIES];
+        SupportSQLiteQuery[] nearestScans = new SupportSQLiteQuery[QUERIES];
+        for (int q = 0; q < QUERIES; q++) {
+            boxScans[q] = boxScan(boxes[q]);
+            nearestScans[q] = nearestScan(points[q][0], points[q][1], 10);
+        }
+
+        long scanBox = time(q -> photoDao.getPhotoGridItemsRaw(boxScans[q]));
+        long scanNearest = time(q -> photoDao.getPhotoGridItemsRaw(nearestScans[q]));
+        boolean rtree = usesRtree();
+        long indexBox = time(q -> photoDao.getPhotoGridItemsInBox(boxes[q][0], boxes[q][1], boxes[q][2], boxes[q][3], LIMIT));
+        long indexNearest = time(q -> photoDao.getNearestPhotoGridItems(points[q][0], points[q][1], 10));
+        report(rtree ? "rtree" : "indexed table", indexBox, indexNearest, scanBox, scanNearest);
+
+        if (rtree) {
+            useIndexedTable();
+            long tableBox = time(q -> photoDao.getPhotoGridItemsInBox(boxes[q][0], boxes[q][1], boxes[q][2], boxes[q][3], LIMIT));
+            long tableNearest = time(q -> photoDao.getNearestPhotoGridItems(points[q][0], points[q][1], 10));
+            report("indexed table", tableBox, tableNearest, scanBox, scanNearest);
+        }
+    }
+
+    private void assertQueriesMatchBruteForce() {
+        Random random = new Random(1);
+        for (int q = 0; q < QUERIES; q++) {
+            double[] box = box(randomPoint(random), HALF_SIZES[q % HALF_SIZES.length]);
+            assertEquals("box " + Arrays.toString(box), bruteForceBox(box, LIMIT),
+                    ids(photoDao.getPhotoGridItemsInBox(box[0], box[1], box[2], box[3], LIMIT)));
+
+            double[] point = randomPoint(random);
+            int k = KS[q % KS.length];
+            assertEquals("nearest " + k + " to " + point[0] + "," + point[1], bruteForceNearest(point[0], point[1], k),
+                    ids(photoDao.getNearestPhotoGridItems(point[0], point[1], k)));
+        }
+    }
+
+    // A city, the open ocean or somewhere in the thinly covered band
+    private static double[] randomPoint(Random random) {
+        switch (random.nextInt(3)) {
+            case 0:
+                double[] city = CITIES[random.nextInt(CITIES.length)];
+                return new double[]{city[0] + random.nextGaussian() * 0.02, city[1] + random.nextGaussian() * 0.02};
+            case 1:
+                return new double[]{random.nextDouble() * 120 - 60, random.nextDouble() * 360 - 180};
+            default:
+                return new double[]{random.nextDouble() * 20 + 65, random.nextDouble() * 360 - 180};
+        }
+    }
+
+    private static double[] box(double[] center, double halfSize) {
+        return new double[]{Math.max(center[0] - halfSize, -90), Math.min(center[0] + halfSize, 90),
+                Math.max(center[1] - halfSize, -180), Math.min(center[1] + halfSize, 180)};
+    }
+
+    // Newest first, like the query
+    private List<Integer> bruteForceBox(double[] box, int limit) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            if (latitudes[i] != null && latitudes[i] >= box[0] && latitudes[i] <= box[1]
+                    && longitudes[i] >= box[2] && longitudes[i] <= box[3]) {
+                ids.add(i + 1);
+            }
+        }
+        ids.sort((a, b) -> timestamps[a - 1] != timestamps[b - 1]
+                ? Long.compare(timestamps[b - 1], timestamps[a - 1]) : Integer.compare(b, a));
+        return ids.subList(0, Math.min(limit, ids.size()));
+    }
+
+    private List<Integer> bruteForceNearest(double lat, double lon, int k) {
+        return bruteForceNearest(lat, lon, k, ROWS);
+    }
+
+    // Same squared equirectangular distance as PhotoLocations, ties broken by id
+    private List<Integer> bruteForceNearest(double lat, double lon, int k, int rows) {
+        double scale = Math.max(Math.cos(Math.toRadians(lat)), 0.01);
+        double scale2 = scale * scale;
+        double[] distances = new double[rows];
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            if (latitudes[i] != null) {
+                double dLat = latitudes[i] - lat;
+                double dLon = longitudes[i] - lon;
+                distances[i] = dLat * dLat + dLon * dLon * scale2;
+                ids.add(i + 1);
+            }
+        }
+        ids.sort((a, b) -> distances[a - 1] != distances[b - 1]
+                ? Double.compare(distances[a - 1], distances[b - 1]) : Integer.compare(a, b));
+        return ids.subList(0, Math.min(k, ids.size()));
+    }
+
+    // The queries the spatial index replaces: every geotagged photo is read
+    private static SupportSQLiteQuery boxScan(double[] box) {
+        return new SimpleSQLiteQuery("SELECT id, filePath, timestamp, is_encrypted, placeholder FROM photos " +
+                "WHERE latitude BETWEEN ? AND ? AND longitude BETWEEN ? AND ? ORDER BY timestamp DESC, id DESC LIMIT ?",
+                new Object[]{box[0], box[1], box[2], box[3], LIMIT});
+    }
+
+    private static SupportSQLiteQuery nearestScan(double lat, double lon, int k) {
+        double scale = Math.max(Math.cos(Math.toRadians(lat)), 0.01);
+        return new SimpleSQLiteQuery("SELECT id, filePath, timestamp, is_encrypted, placeholder FROM photos " +
+                "WHERE latitude IS NOT NULL ORDER BY (latitude - ?1) * (latitude - ?1) + " +
+                "(longitude - ?2) * (longitude - ?2) * ?3, id LIMIT ?4",
+                new Object[]{lat, lon, scale * scale, k});
+    }
+
+    private interface Query {
+        void run(int q);
+    }
+
+    private static long time(Query query) {
+        long start = System.nanoTime();
+        for (int q = 0; q < QUERIES; q++) {
+            query.run(q);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String index, long boxNanos, long nearestNanos, long scanBoxNanos, long scanNearestNanos) {
+        Log.i(TAG, String.format(Locale.US, "%s, %d photos, %d queries: box %.3f ms (scan %.3f ms), "
+                        + "10 nearest %.3f ms (scan %.3f ms)", index, ROWS, QUERIES,
+                boxNanos / 1e6 / QUERIES, scanBoxNanos / 1e6 / QUERIES,
+                nearestNanos / 1e6 / QUERIES, scanNearestNanos / 1e6 / QUERIES));
+    }
+
+    // Swaps the R*Tree for the table used where the rtree module is missing
+    private void useIndexedTable() {
+        sqlite.execSQL("DROP TABLE photo_locations");
+        PhotoLocations.createIndexedTable(sqlite);
+        PhotoLocations.fill(sqlite);
+    }
+
+    private boolean usesRtree() {
+        try (Cursor cursor = sqlite.query("SELECT sql FROM sqlite_master WHERE name = 'photo_locations'")) {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0).contains("rtree");
+        }
+    }
+
+    private static List<Integer> ids(List<PhotoGridItem> rows) {
+        List<Integer> ids = new ArrayList<>(rows.size());
+        for (PhotoGridItem row : rows) {
+            ids.add(row.id);
+        }
+        return ids;
+    }
+
+    private static void bindNullable(SupportSQLiteStatement statement, int index, Double value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindDouble(index, value);
+        }
+    }
+}
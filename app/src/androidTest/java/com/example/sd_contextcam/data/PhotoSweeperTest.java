@@ -0,0 +1,225 @@
+package com.example.sd_contextcam.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the file side of PhotoSweeper over a temporary files dir: each pass must walk every
+ * file once in bounded slices, list the directories once, and skip tracked files whose
+ * recorded size and mtime still match without querying for them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PhotoSweeperTest {
+    private static final int PLAIN_FILES = 450;
+    private static final int VAULT_FILES = 21;
+    // PLAIN_FILES + VAULT_FILES, plus DUP.jpg, which is listed but never adopted
+    private static final int LISTED = PLAIN_FILES + VAULT_FILES + 1;
+    private static final int TRACKED = PLAIN_FILES + VAULT_FILES;
+    private static final long OLD = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+
+    private AppDatabase db;
+    private File filesDir;
+    private SharedPreferences prefs;
+    private PhotoSweeper sweeper;
+    private boolean mediaReadable = true;
+
+    @Before
+    public void setUp() throws IOException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = AppDatabase.createInMemory(context);
+        filesDir = new File(context.getCacheDir(), "sweeper-test");
+        deleteRecursively(filesDir);
+        File vaultDir = new File(filesDir, "vault");
+        assertTrue(vaultDir.mkdirs());
+        for (int i = 0; i < PLAIN_FILES; i++) {
+            createFile(new File(filesDir, String.format(Locale.ROOT, "IMG_%04d.jpg", i)));
+        }
+        for (int i = 0; i < VAULT_FILES - 1; i++) {
+            createFile(new File(vaultDir, String.format(Locale.ROOT, "VAULT_V_%02d.jpg", i)));
+        }
+        // A crash leftover: the plain original of a vault photo must not be adopted
+        createFile(new File(filesDir, "DUP.jpg"));
+        createFile(new File(vaultDir, "VAULT_DUP.jpg"));
+        createFile(new File(filesDir, "notes.txt"));
+
+        prefs = context.getSharedPreferences("photo_sweeper_test", Context.MODE_PRIVATE);
+        prefs.edit().clear().commit();
+        sweeper = new PhotoSweeper(db, filesDir, prefs, () -> mediaReadable);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        deleteRecursively(filesDir);
+        deleteRecursively(externalDir());
+        prefs.edit().clear().commit();
+    }
+
+    @Test
+    public void firstPassAdoptsEveryUntrackedFileInBoundedSlices() {
+        PassTotals pass = runPass();
+        assertEquals(LISTED, pass.checked);
+        assertEquals(TRACKED, pass.adopted);
+        assertEquals(0, pass.unchanged);
+        assertEquals((LISTED + PhotoSweeper.FILES_PER_SLICE - 1) / PhotoSweeper.FILES_PER_SLICE, pass.slices);
+        assertEquals(TRACKED, db.photoDao().getAllPhotoGridItems().size());
+        assertNull(db.photoDao().getPhotoByFilePath(new File(filesDir, "DUP.jpg").getAbsolutePath()));
+        assertEquals(1, calls("PhotoSweeper.filePassState"));
+    }
+
+    @Test
+    public void unchangedTrackedFilesAreSkippedWithoutLookups() {
+        // The row sweep trails adoption by a slice, so every row's state is recorded by the
+        // time the third pass starts
+        runPass();
+        runPass();
+        long lookups = calls("PhotoSweeper.trackedPaths");
+
+        PassTotals pass = runPass();
+        assertEquals(LISTED, pass.checked);
+        assertEquals(TRACKED, pass.unchanged);
+        assertEquals(0, pass.adopted);
+        assertEquals(lookups, calls("PhotoSweeper.trackedPaths"));
+        assertEquals(3, calls("PhotoSweeper.filePassState"));
+    }
+
+    @Test
+    public void changedAndNewFilesAreLookedUpAgain() throws IOException {
+        runPass();
+        runPass();
+        long lookups = calls("PhotoSweeper.trackedPaths");
+
+        File changed = new File(filesDir, "IMG_0000.jpg");
+        try (FileOutputStream out = new FileOutputStream(changed, true)) {
+            out.write(new byte[16]);
+        }
+        assertTrue(changed.setLastModified(OLD + 1000));
+        createFile(new File(filesDir, "A_NEW.jpg"));
+
+        PassTotals pass = runPass();
+        assertEquals(LISTED + 1, pass.checked);
+        assertEquals(TRACKED - 1, pass.unchanged);
+        assertEquals(1, pass.adopted);
+        // Both files fall in the first slice
+        assertEquals(lookups + 1, calls("PhotoSweeper.trackedPaths"));
+        assertNotNull(db.photoDao().getPhotoByFilePath(new File(filesDir, "A_NEW.jpg").getAbsolutePath()));
+    }
+
+    @Test
+    public void fileAddedMidPassIsPickedUpByTheNextPass() throws IOException {
+        PhotoSweeper.Result first = sweeper.runSlice();
+        assertNotNull(first);
+        assertFalse(first.filePassComplete);
+        // Sorts after the cursor, but the pass works from the listing it started with
+        createFile(new File(filesDir, "ZZZ.jpg"));
+
+        PassTotals rest = runPass();
+        assertEquals(LISTED, first.filesChecked + rest.checked);
+
+        PassTotals next = runPass();
+        assertEquals(LISTED + 1, next.checked);
+        assertEquals(1, next.adopted);
+    }
+
+    @Test
+    public void externalRowsAreLeftAloneWithoutMediaPermission() {
+        long photoId = insertExternalPhoto();
+        mediaReadable = false;
+
+        PhotoSweeper.Result result = sweeper.runSlice();
+        assertNotNull(result);
+        assertEquals(1, result.rowsChecked);
+        assertEquals(1, result.rowsUnchanged);
+        assertEquals(0, result.rowsMissing);
+        assertNotNull(db.photoDao().getPhotoById((int) photoId));
+    }
+
+    @Test
+    public void externalFileGoneWithMediaPermissionIsMarkedMissing() {
+        long photoId = insertExternalPhoto();
+
+        PhotoSweeper.Result result = sweeper.runSlice();
+        assertNotNull(result);
+        assertEquals(1, result.rowsMissing);
+        // Kept for the grace period
+        assertNotNull(db.photoDao().getPhotoById((int) photoId));
+    }
+
+    // A photo outside filesDir whose folder is readable but whose file is gone
+    private long insertExternalPhoto() {
+        File dir = externalDir();
+        assertTrue(dir.isDirectory() || dir.mkdirs());
+        return db.photoDao().insertPhoto(new Photo(new File(dir, "GONE.jpg").getAbsolutePath(), OLD));
+    }
+
+    private File externalDir() {
+        return new File(filesDir.getParentFile(), "sweeper-test-external");
+    }
+
+    private static final class PassTotals {
+        int slices;
+        int checked;
+        int unchanged;
+        int adopted;
+    }
+
+    // Runs slices until the file pass wraps
+    private PassTotals runPass() {
+        PassTotals totals = new PassTotals();
+        while (true) {
+            PhotoSweeper.Result result = sweeper.runSlice();
+            assertNotNull("Another sweep was running", result);
+            assertTrue(result.filesChecked <= PhotoSweeper.FILES_PER_SLICE);
+            totals.slices++;
+            totals.checked += result.filesChecked;
+            totals.unchanged += result.filesUnchanged;
+            totals.adopted += result.filesAdopted;
+            if (result.filePassComplete) {
+                return totals;
+            }
+        }
+    }
+
+    private long calls(String method) {
+        for (QueryStats.MethodStats stats : db.getQueryStats().getMethodStats()) {
+            if (stats.getMethod().equals(method)) {
+                return stats.getCalls();
+            }
+        }
+        return 0;
+    }
+
+    // Old enough to adopt straight away
+    private static void createFile(File file) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(file.getName().getBytes());
+        }
+        assertTrue(file.setLastModified(OLD));
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
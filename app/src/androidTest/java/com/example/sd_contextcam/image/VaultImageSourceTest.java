@@ -0,0 +1,93 @@
+package com.example.sd_contextcam.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.sd_contextcam.CryptoUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decodes one encrypted photo from many threads at once, the way the pager and viewer do when
+ * neighbouring pages bind together.
+ */
+@RunWith(AndroidJUnit4.class)
+public class VaultImageSourceTest {
+    private static final int THREADS = 8;
+
+    private Context context;
+    private File vaultFile;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        vaultFile = new File(context.getFilesDir(), "VAULT_test_" + System.nanoTime() + ".jpg");
+        Bitmap photo = Bitmap.createBitmap(2000, 1500, Bitmap.Config.ARGB_8888);
+        photo.eraseColor(Color.rgb(200, 40, 40));
+        assertTrue(CryptoUtils.encryptAndSavePhoto(photo, vaultFile.getAbsolutePath(), context));
+    }
+
+    @After
+    public void tearDown() {
+        vaultFile.delete();
+    }
+
+    @Test
+    public void concurrentDecodesSucceedWithoutPlaintextFiles() throws Exception {
+        List<String> cacheBefore = listCache();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Callable<Bitmap>> decodes = new ArrayList<>();
+            for (int i = 0; i < THREADS * 4; i++) {
+                decodes.add(() -> VaultImageSource.decode(vaultFile.getAbsolutePath(), context, 500, 500));
+            }
+            for (Future<Bitmap> result : pool.invokeAll(decodes, 60, TimeUnit.SECONDS)) {
+                Bitmap bitmap = result.get();
+                assertNotNull(bitmap);
+                // Sample size 2 is the largest that keeps both sides at least 500 px
+                assertEquals(1000, bitmap.getWidth());
+                assertEquals(750, bitmap.getHeight());
+                // JPEG is lossy, so compare with a tolerance
+                int center = bitmap.getPixel(500, 375);
+                assertEquals(200, Color.red(center), 8);
+                assertEquals(40, Color.green(center), 8);
+                assertEquals(40, Color.blue(center), 8);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(cacheBefore, listCache());
+    }
+
+    @Test
+    public void missingFileReturnsNull() {
+        assertNull(VaultImageSource.decode(new File(context.getFilesDir(), "VAULT_missing.jpg").getAbsolutePath(),
+                context, 500, 500));
+    }
+
+    private List<String> listCache() {
+        String[] names = context.getCacheDir().list();
+        List<String> list = names == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(names));
+        list.sort(null);
+        return list;
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.sd_contextcam;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import com.example.sd_contextcam.data.QueryStats;
+import com.example.sd_contextcam.data.TagRepository;
+
+import java.io.File;
+
+/**
+ * Debug-only hook for the database stats. Sets the slow-query budget if budget_ms is given,
+ * logs the writer's contention stats and writes the query stats as JSON under the files dir:
+ *
+ * adb shell am broadcast -a com.example.sd_contextcam.DUMP_QUERY_STATS -p com.example.sd_contextcam --el budget_ms 20
+ */
+public class QueryStatsReceiver extends BroadcastReceiver {
+    private static final String TAG = "QueryStatsReceiver";
+    private static final String EXTRA_BUDGET_MS = "budget_ms";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        PendingResult pending = goAsync();
+        Context appContext = context.getApplicationContext();
+        new Thread(() -> {
+            try {
+                TagRepository repository = new TagRepository(appContext);
+                QueryStats stats = repository.getQueryStats();
+                if (intent.hasExtra(EXTRA_BUDGET_MS)) {
+                    stats.setSlowQueryBudgetMs(intent.getLongExtra(EXTRA_BUDGET_MS, QueryStats.DEFAULT_SLOW_BUDGET_MS));
+                }
+                Log.d(TAG, "Slow-query budget: " + stats.getSlowQueryBudgetMs() + "ms");
+                Log.d(TAG, "Writer stats: " + repository.getWriterStats());
+                File file = repository.dumpQueryStats();
+                pending.setResultData(file != null ? file.getAbsolutePath() : null);
+            } finally {
+                pending.finish();
+            }
+        }, "query-stats-dump").start();
+    }
+}
@@ -12,26 +12,43 @@ import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.lifecycle.LifecycleOwner;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.example.sd_contextcam.data.Photo;
 import com.example.sd_contextcam.data.Tag;
 import com.example.sd_contextcam.viewmodel.PhotoViewModel;
 import com.google.android.material.textfield.TextInputLayout;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
-public class BatchSorterAdapter extends RecyclerView.Adapter<BatchSorterAdapter.BatchViewHolder> {
+public class BatchSorterAdapter extends ListAdapter<BatchItem, BatchSorterAdapter.BatchViewHolder> {
+    // Batches are one per folder, so the folder name identifies them
+    private static final DiffUtil.ItemCallback<BatchItem> DIFF_CALLBACK = new DiffUtil.ItemCallback<BatchItem>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull BatchItem oldItem, @NonNull BatchItem newItem) {
+            return Objects.equals(oldItem.getTitle(), newItem.getTitle());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull BatchItem oldItem, @NonNull BatchItem newItem) {
+            return oldItem.getPhotoCount() == newItem.getPhotoCount()
+                    && Objects.equals(oldItem.getDescription(), newItem.getDescription())
+                    && Objects.equals(oldItem.getPhotoPaths(), newItem.getPhotoPaths());
+        }
+    };
+    // Partial rebind that only refreshes the tag dropdown, keeping whatever the user typed
+    private static final Object PAYLOAD_TAG_SUGGESTIONS = new Object();
 
-    private List<BatchItem> batchList;
     private Context context;
     private PhotoViewModel photoViewModel;
     private List<String> tagSuggestions = new ArrayList<>();
 
     public BatchSorterAdapter(List<BatchItem> batchList, Context context, PhotoViewModel photoViewModel) {
-        this.batchList = batchList;
+        super(DIFF_CALLBACK);
         this.context = context;
         this.photoViewModel = photoViewModel;
 
@@ -39,8 +56,11 @@ public class BatchSorterAdapter extends RecyclerView.Adapter<BatchSorterAdapter.
         photoViewModel.getTags().observe((LifecycleOwner) context, tags -> {
             if (tags != null) {
                 tagSuggestions = tags.stream().map(Tag::getName).collect(Collectors.toList());
+                notifyItemRangeChanged(0, getItemCount(), PAYLOAD_TAG_SUGGESTIONS);
             }
         });
+        // Copied, like every list handed to the differ; see updateBatches
+        submitList(new ArrayList<>(batchList));
     }
 
     @NonNull
@@ -53,7 +73,7 @@ public class BatchSorterAdapter extends RecyclerView.Adapter<BatchSorterAdapter.
 
     @Override
     public void onBindViewHolder(@NonNull BatchViewHolder holder, int position) {
-        BatchItem batch = batchList.get(position);
+        BatchItem batch = getItem(position);
 
         // 1. Set the text
         holder.batchTitle.setText(batch.getTitle());
@@ -61,12 +81,7 @@ public class BatchSorterAdapter extends RecyclerView.Adapter<BatchSorterAdapter.
         holder.photoCount.setText(batch.getPhotoCount() + " photos");
 
         // 2. Set up the AutoComplete (the dropdown)
-        ArrayAdapter<String> adapter = new ArrayAdapter<>(
-                context,
-                android.R.layout.simple_dropdown_item_1line,
-                tagSuggestions
-        );
-        holder.tagAutoComplete.setAdapter(adapter);
+        bindTagSuggestions(holder);
 
         // 3. Set the "Apply Tag" button click listener
         holder.applyTagButton.setOnClickListener(v -> {
@@ -80,97 +95,52 @@ public class BatchSorterAdapter extends RecyclerView.Adapter<BatchSorterAdapter.
             holder.tagInputLayout.setError(null);
 
             // Apply tag to all photos in the batch
-            applyTagToBatchPhotos(batch, tagName, position);
+            applyTagToBatchPhotos(batch, tagName);
         });
     }
 
     @Override
-    public int getItemCount() {
-        return batchList.size();
+    public void onBindViewHolder(@NonNull BatchViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.contains(PAYLOAD_TAG_SUGGESTIONS)) {
+            bindTagSuggestions(holder);
+        } else {
+            super.onBindViewHolder(holder, position, payloads);
+        }
+    }
+
+    private void bindTagSuggestions(BatchViewHolder holder) {
+        ArrayAdapter<String> adapter = new ArrayAdapter<>(
+                context,
+                android.R.layout.simple_dropdown_item_1line,
+                tagSuggestions
+        );
+        holder.tagAutoComplete.setAdapter(adapter);
     }
 
     public void updateBatches(List<BatchItem> newBatches) {
-        this.batchList = newBatches;
-        notifyDataSetChanged();
+        // Copied, so later changes to the caller's list cannot race the background diff
+        submitList(new ArrayList<>(newBatches));
     }
 
-    private void applyTagToBatchPhotos(BatchItem batch, String tagName, int position) {
+    private void applyTagToBatchPhotos(BatchItem batch, String tagName) {
         // Show loading state
         Toast.makeText(context, "Applying tag '" + tagName + "' to " + batch.getPhotoCount() + " photos...", Toast.LENGTH_SHORT).show();
 
-        // Apply tag to all photos in the batch on a background thread
-        new Thread(() -> {
-            try {
-                // 1. Check if tag exists, if not create it
-                Tag existingTag = photoViewModel.getRepository().getTagByName(tagName);
-                Tag tag;
-                
-                if (existingTag == null) {
-                    // Create new tag
-                    tag = new Tag();
-                    tag.setName(tagName);
-                    long tagId = photoViewModel.getRepository().insertTag(tag);
-                    // Get the created tag with its ID
-                    tag = photoViewModel.getRepository().getTagById((int) tagId);
-                } else {
-                    tag = existingTag;
-                }
-
-                if (tag == null) {
-                    // Error creating tag
-                    ((android.app.Activity) context).runOnUiThread(() -> {
-                        Toast.makeText(context, "Error creating tag", Toast.LENGTH_SHORT).show();
-                    });
-                    return;
-                }
-
-                // 2. Process each photo in the batch
-                int successCount = 0;
-                for (String photoPath : batch.getPhotoPaths()) {
-                    try {
-                        // Check if photo already exists in database
-                        Photo existingPhoto = photoViewModel.getRepository().getPhotoByFilePath(photoPath);
-                        Photo photo;
-                        
-                        if (existingPhoto == null) {
-                            // Create new photo entry
-                            photo = new Photo();
-                            photo.setFilePath(photoPath);
-                            photo.setTimestamp(System.currentTimeMillis());
-                            long photoId = photoViewModel.getRepository().insertPhoto(photo);
-                            photo = photoViewModel.getRepository().getPhotoById((int) photoId);
-                        } else {
-                            photo = existingPhoto;
-                        }
-
-                        if (photo != null) {
-                            // 3. Link photo to tag
-                            photoViewModel.getRepository().addTagToPhoto(photo.getId(), tag.getId());
-                            successCount++;
-                        }
-                    } catch (Exception e) {
-                        android.util.Log.e("BatchSorterAdapter", "Error processing photo: " + photoPath, e);
-                    }
-                }
-
-                // Update UI on main thread
-                final int finalSuccessCount = successCount;
-                ((android.app.Activity) context).runOnUiThread(() -> {
-                    Toast.makeText(context, "Successfully tagged " + finalSuccessCount + " photos as '" + tagName + "'", Toast.LENGTH_SHORT).show();
-                    
-                    // Remove the batch from the list since it's been processed
-                    batchList.remove(position);
-                    notifyItemRemoved(position);
-                    notifyItemRangeChanged(position, batchList.size());
-                });
-
-            } catch (Exception e) {
-                android.util.Log.e("BatchSorterAdapter", "Error applying tag to batch photos", e);
-                ((android.app.Activity) context).runOnUiThread(() -> {
-                    Toast.makeText(context, "Error applying tag: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                });
+        // Tag, photo rows and join rows are resolved in bulk through the database writer
+        photoViewModel.addTagToPhotoPaths(tagName, batch.getPhotoPaths(), null, taggedCount -> {
+            if (taggedCount < 0) {
+                Toast.makeText(context, "Error creating tag", Toast.LENGTH_SHORT).show();
+                return;
             }
-        }).start();
+
+            Toast.makeText(context, "Successfully tagged " + taggedCount + " photos as '" + tagName + "'", Toast.LENGTH_SHORT).show();
+
+            // Remove the batch from the list since it's been processed
+            List<BatchItem> remaining = new ArrayList<>(getCurrentList());
+            if (remaining.remove(batch)) {
+                submitList(remaining);
+            }
+        });
     }
 
     // The ViewHolder class
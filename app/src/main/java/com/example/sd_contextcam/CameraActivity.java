@@ -5,6 +5,7 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
@@ -37,6 +38,8 @@ import androidx.lifecycle.ViewModelProvider;
 
 import com.example.sd_contextcam.data.Photo;
 import com.example.sd_contextcam.data.Tag;
+import com.example.sd_contextcam.image.Placeholder;
+import com.example.sd_contextcam.image.ThumbnailCache;
 import com.example.sd_contextcam.security.EncryptionUtil;
 // Use the ViewModel with callbacks
 import com.example.sd_contextcam.viewmodel.PhotoViewModel;
@@ -51,6 +54,7 @@ import java.util.Locale;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 public class CameraActivity extends AppCompatActivity {
@@ -111,7 +115,6 @@ public class CameraActivity extends AppCompatActivity {
             setContentView(R.layout.activity_camera);
             initViews();
             setupViewModel();
-            photoViewModel.loadTags(); // Load tags early
             setupClickListeners();
             encryptionUtil = new EncryptionUtil(this);
             cameraExecutor = Executors.newSingleThreadExecutor();
@@ -202,25 +205,8 @@ public class CameraActivity extends AppCompatActivity {
             return;
         }
         Log.d(TAG, "applyTagToPhoto: Applying tag '" + tagName + "' to photo ID: " + photoId);
-        photoViewModel.getTagByName(tagName, tag -> {
-            if (tag == null) {
-                Log.d(TAG, "applyTagToPhoto: Tag '" + tagName + "' not found, creating...");
-                Tag newTag = new Tag();
-                newTag.setName(tagName);
-                photoViewModel.addTag(newTag, newTagId -> {
-                    if (newTagId > 0) {
-                        Log.d(TAG, "applyTagToPhoto: New tag created with ID: " + newTagId + ". Linking photo ID: " + photoId);
-                        photoViewModel.addTagToPhoto(photoId, (int) newTagId);
-                    } else {
-                        Log.e(TAG, "applyTagToPhoto: Failed to create new tag '" + tagName + "'");
-                    }
-                });
-            } else {
-                int existingTagId = tag.getId();
-                Log.d(TAG, "applyTagToPhoto: Tag found ID: " + existingTagId + ". Linking photo ID: " + photoId);
-                photoViewModel.addTagToPhoto(photoId, existingTagId);
-            }
-        });
+        // Tag lookup/creation and the link happen in one idempotent write
+        photoViewModel.addTagToPhoto(photoId, tagName);
     }
 
     // --- MODIFIED: setupClickListeners uses new end button ---
@@ -450,19 +436,28 @@ public class CameraActivity extends AppCompatActivity {
                             });
                         } else {
                             Log.d(TAG, "onImageSaved: Processing standard photo...");
-                            Photo photo = new Photo();
-                            photo.setFilePath(savedPath);
-                            photo.setTimestamp(currentTimestamp);
-                            photo.setEncrypted(false);
-                            photoViewModel.addPhoto(photo, newPhotoId -> { // newPhotoId is long
-                                if (newPhotoId > 0) {
-                                    Log.d(TAG, "Standard photo added to DB: " + newPhotoId);
-                                    if (currentTagSession != null && !currentTagSession.isEmpty()) {
-                                        applyTagToPhoto(newPhotoId, currentTagSession);
+                            ThumbnailCache thumbnails = ThumbnailCache.get(CameraActivity.this);
+                            cameraExecutor.execute(() -> {
+                                // One small decode now, so the gallery never decodes this photo in full
+                                Bitmap thumbnail = thumbnails.decodeForCapture(savedPath);
+                                Photo photo = new Photo();
+                                photo.setFilePath(savedPath);
+                                photo.setTimestamp(currentTimestamp);
+                                photo.setEncrypted(false);
+                                photo.setPlaceholder(thumbnail != null ? Placeholder.encode(thumbnail) : null);
+                                photoViewModel.addPhoto(photo, newPhotoId -> { // newPhotoId is long
+                                    if (newPhotoId > 0) {
+                                        Log.d(TAG, "Standard photo added to DB: " + newPhotoId);
+                                        if (thumbnail != null) {
+                                            storeThumbnail(thumbnails, newPhotoId, savedPath, thumbnail);
+                                        }
+                                        if (currentTagSession != null && !currentTagSession.isEmpty()) {
+                                            applyTagToPhoto(newPhotoId, currentTagSession);
+                                        }
+                                    } else {
+                                        Log.e(TAG, "Failed to add standard photo to DB");
                                     }
-                                } else {
-                                    Log.e(TAG, "Failed to add standard photo to DB");
-                                }
+                                });
                             });
                             String message = "Photo captured" + (currentTagSession != null ? " with tag: " + currentTagSession : "");
                             Toast.makeText(CameraActivity.this, message, Toast.LENGTH_SHORT).show();
@@ -477,6 +472,15 @@ public class CameraActivity extends AppCompatActivity {
                 });
     }
 
+    // The cache file is named after the row id, so this waits for the insert
+    private void storeThumbnail(ThumbnailCache thumbnails, long photoId, String path, Bitmap thumbnail) {
+        try {
+            cameraExecutor.execute(() -> thumbnails.store((int) photoId, path, thumbnail));
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Camera closed before the thumbnail was cached: " + path);
+        }
+    }
+
     private void openGallery() {
         Intent intent = new Intent(this, GalleryActivity.class);
         startActivity(intent);
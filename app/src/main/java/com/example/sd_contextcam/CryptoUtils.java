@@ -59,6 +59,41 @@ public class CryptoUtils {
         }
     }
 
+    /**
+     * Opens a stream that decrypts the file as it is read. Only the segments actually read are
+     * decrypted, so reading just the header of a large photo is cheap. The caller closes it.
+     *
+     * @param encryptedPath The path to the encrypted file.
+     * @param context       The application context.
+     * @return The decrypting stream.
+     */
+    public static InputStream openDecryptedStream(String encryptedPath, Context context)
+            throws GeneralSecurityException, IOException {
+        return getEncryptedFile(encryptedPath, context).openFileInput();
+    }
+
+    /**
+     * Decrypts an encrypted file fully into memory, so it can be decoded without a temp file.
+     *
+     * @param encryptedPath The path to the encrypted file.
+     * @param context       The application context.
+     * @return The decrypted bytes, or null if decryption fails.
+     */
+    public static byte[] readDecryptedBytes(String encryptedPath, Context context) {
+        try (InputStream inputStream = getEncryptedFile(encryptedPath, context).openFileInput()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(new File(encryptedPath).length(), 32));
+            byte[] buffer = new byte[16 * 1024];
+            int length;
+            while ((length = inputStream.read(buffer)) > 0) {
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } catch (GeneralSecurityException | IOException e) {
+            Log.e(TAG, "Failed to decrypt file", e);
+            return null;
+        }
+    }
+
     /**
      * Loads a normal, unencrypted photo from a given path.
      * This is used as a fallback or for non-vault images.
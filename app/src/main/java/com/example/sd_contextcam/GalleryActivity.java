@@ -4,35 +4,51 @@ import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
+import android.widget.EditText;
+import android.widget.FrameLayout;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.activity.OnBackPressedCallback;
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SearchView;
 import androidx.biometric.BiometricManager;
 import androidx.biometric.BiometricPrompt;
 import androidx.core.content.ContextCompat;
 import androidx.lifecycle.ViewModelProvider;
+import androidx.paging.LoadState;
+import androidx.paging.PagingData;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.example.sd_contextcam.data.Photo;
+import com.example.sd_contextcam.data.DateBucket;
+import com.example.sd_contextcam.data.DateRange;
 import com.example.sd_contextcam.data.Tag;
+import com.example.sd_contextcam.data.TagFilter;
 import com.example.sd_contextcam.viewmodel.PhotoViewModel;
 import com.google.android.material.chip.Chip;
 
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
+import kotlin.Unit;
+
 public class GalleryActivity extends AppCompatActivity {
     private static final String TAG = "GalleryActivity";
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("MMMM yyyy");
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("EEE d MMM yyyy");
     private RecyclerView photosRecyclerView;
     private RecyclerView tagsRecyclerView;
     private GalleryAdapter galleryAdapter;
@@ -44,14 +60,21 @@ public class GalleryActivity extends AppCompatActivity {
     private View tagsView;
     private View photosView;
     private TextView breadcrumbText;
+    private SearchView searchView;
     private PhotoViewModel photoViewModel;
 
     // --- MODIFIED: State management variables to align with GalleryAdapter ---
     private Tag currentTag = null;
-    private String currentViewMode = "TAGS"; // Possible values: "TAGS", "VAULT", "DATE"
+    private String currentViewMode = "TAGS"; // Possible values: "TAGS", "VAULT", "DATE", "SEARCH", "FILTER"
     private int currentTagId = -1; // -1 represents no specific tag (e.g., for Vault or All)
     // --- END MODIFICATION ---
 
+    // Boolean tag expression narrowing the grid, shown as a chip in tagFilterLayout; null when off
+    private TagFilter activeFilter = null;
+
+    // Tags drilled into from the root, innermost first
+    private final Deque<Tag> tagPath = new ArrayDeque<>();
+
     private Executor executor;
     private BiometricPrompt biometricPrompt;
     private BiometricPrompt.PromptInfo promptInfo;
@@ -68,6 +91,12 @@ public class GalleryActivity extends AppCompatActivity {
         setupBiometricAuthentication();
         observeViewModel();
         setupFilters();
+        setupSearch();
+
+        // Reconcile a slice of the library with what is on disk; not again on rotation
+        if (savedInstanceState == null) {
+            photoViewModel.sweepLibrarySlice();
+        }
 
         getOnBackPressedDispatcher().addCallback(this, new OnBackPressedCallback(true) {
             @Override
@@ -75,6 +104,10 @@ public class GalleryActivity extends AppCompatActivity {
                 if (photosView != null && photosView.getVisibility() == View.VISIBLE) {
                     Log.d(TAG, "Back pressed from photos view. Returning to tags view.");
                     showTagsView();
+                } else if (!tagPath.isEmpty()) {
+                    Log.d(TAG, "Back pressed inside a nested tag. Going up one level.");
+                    tagPath.pop();
+                    photoViewModel.setTagLevel(tagPath.isEmpty() ? -1 : tagPath.peek().id);
                 } else {
                     setEnabled(false);
                     getOnBackPressedDispatcher().onBackPressed();
@@ -97,6 +130,7 @@ public class GalleryActivity extends AppCompatActivity {
         tagsView = findViewById(R.id.tagsView);
         photosView = findViewById(R.id.photosView);
         breadcrumbText = findViewById(R.id.breadcrumbText);
+        searchView = findViewById(R.id.gallerySearchView);
     }
 
     private void setupRecyclerViews() {
@@ -109,8 +143,14 @@ public class GalleryActivity extends AppCompatActivity {
         tagsRecyclerView.setLayoutManager(new LinearLayoutManager(this));
         tagsRecyclerView.setAdapter(tagsAdapter);
 
-        tagsAdapter.setOnTagClickListener(tag -> {
-            // When a tag is clicked, show photos for that specific tag
+        tagsAdapter.setOnTagClickListener(item -> {
+            Tag tag = item.getTag();
+            // Nested tags: the list moves down a level, ready for when the user backs out of the photos
+            if (item.getChildCount() > 0) {
+                tagPath.push(tag);
+                photoViewModel.setTagLevel(tag.id);
+            }
+            // When a tag is clicked, show photos for that tag and everything under it
             currentViewMode = "TAG"; // Set view mode to "TAG"
             showPhotosForTag(tag);
         });
@@ -125,8 +165,11 @@ public class GalleryActivity extends AppCompatActivity {
     private void showPhotosForTag(Tag tag) {
         currentTag = tag;
         currentTagId = (tag != null) ? tag.id : -1;
+        activeFilter = null;
+        renderFilterChips();
+        dateFilterButton.setText("Filter by Date");
 
-        breadcrumbText.setText("Gallery > " + tag.name);
+        breadcrumbText.setText(buildBreadcrumb(tag));
         findViewById(R.id.tagFilterContainer).setVisibility(View.VISIBLE);
         dateFilterButton.setVisibility(View.VISIBLE);
         clearFiltersButton.setVisibility(View.VISIBLE);
@@ -138,6 +181,126 @@ public class GalleryActivity extends AppCompatActivity {
         photoViewModel.loadPhotosByTagId(currentTagId);
     }
 
+    private void renderFilterChips() {
+        tagFilterLayout.removeAllViews();
+        if (activeFilter != null) {
+            Chip filterChip = new Chip(this);
+            filterChip.setText(activeFilter.toString());
+            filterChip.setCloseIconVisible(true);
+            filterChip.setOnClickListener(v -> showTagFilterDialog());
+            filterChip.setOnCloseIconClickListener(v -> clearTagFilter());
+            tagFilterLayout.addView(filterChip);
+        } else {
+            Chip addChip = new Chip(this);
+            addChip.setText("+ Combine tags");
+            addChip.setOnClickListener(v -> showTagFilterDialog());
+            tagFilterLayout.addView(addChip);
+        }
+    }
+
+    private void showTagFilterDialog() {
+        EditText input = new EditText(this);
+        input.setSingleLine(true);
+        input.setHint("(Family AND 2025) AND NOT Screenshots");
+        if (activeFilter != null) {
+            input.setText(activeFilter.toString());
+        } else if (currentTag != null) {
+            input.setText(TagFilter.forTag(currentTag.name).toString());
+        }
+        input.setSelection(input.getText().length());
+
+        FrameLayout container = new FrameLayout(this);
+        int padding = (int) (20 * getResources().getDisplayMetrics().density);
+        container.setPadding(padding, padding / 2, padding, 0);
+        container.addView(input);
+
+        new AlertDialog.Builder(this, R.style.AlertDialogTheme)
+                .setTitle("Filter by tags")
+                .setMessage("Combine tags with AND, OR, NOT and parentheses.")
+                .setView(container)
+                .setPositiveButton("Apply", (dialog, which) -> applyTagFilter(input.getText().toString()))
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    private void applyTagFilter(String expression) {
+        TagFilter filter;
+        try {
+            filter = TagFilter.parse(expression);
+        } catch (IllegalArgumentException e) {
+            Toast.makeText(this, "Invalid filter: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Log.d(TAG, "Applying tag filter " + filter + " (shape " + filter.getShape() + ")");
+        activeFilter = filter;
+        currentViewMode = "FILTER";
+        currentTagId = -1;
+        breadcrumbText.setText("Gallery > Filter");
+        renderFilterChips();
+
+        // One compiled query per page, whatever the number of tags in the expression
+        photoViewModel.loadPhotosByFilter(filter);
+    }
+
+    private void clearTagFilter() {
+        if (currentTag != null) {
+            currentViewMode = "TAG";
+            showPhotosForTag(currentTag);
+        } else {
+            activeFilter = null;
+            renderFilterChips();
+            dateFilterButton.setText("Filter by Date");
+            photoViewModel.loadPhotos();
+        }
+    }
+
+    private void setupSearch() {
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                if (query.trim().isEmpty()) {
+                    return false;
+                }
+                searchView.clearFocus();
+                showSearchResults(query.trim());
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                return false;
+            }
+        });
+    }
+
+    private void showSearchResults(String query) {
+        currentTag = null;
+        currentTagId = -1;
+        currentViewMode = "SEARCH";
+
+        breadcrumbText.setText("Gallery > Search: " + query);
+        findViewById(R.id.tagFilterContainer).setVisibility(View.GONE);
+        dateFilterButton.setVisibility(View.GONE);
+        clearFiltersButton.setVisibility(View.GONE);
+        tagsView.setVisibility(View.GONE);
+        photosView.setVisibility(View.VISIBLE);
+
+        // Ranked FTS lookup over tag names, calendar events and Wi-Fi names
+        photoViewModel.searchPhotos(query);
+    }
+
+    private String buildBreadcrumb(Tag tag) {
+        StringBuilder breadcrumb = new StringBuilder("Gallery");
+        Iterator<Tag> outermostFirst = tagPath.descendingIterator();
+        while (outermostFirst.hasNext()) {
+            Tag level = outermostFirst.next();
+            if (level.id != tag.id) {
+                breadcrumb.append(" > ").append(level.name);
+            }
+        }
+        return breadcrumb.append(" > ").append(tag.name).toString();
+    }
+
     private void showTagsView() {
         currentTag = null;
         currentTagId = -1;
@@ -149,9 +312,7 @@ public class GalleryActivity extends AppCompatActivity {
         clearFiltersButton.setVisibility(View.GONE);
         tagsView.setVisibility(View.VISIBLE);
         photosView.setVisibility(View.GONE);
-
-        // Refresh the tags list to get updated photo counts
-        photoViewModel.loadTags();
+        emptyStateText.setVisibility(View.GONE);
     }
 
     private void setupViewModel() {
@@ -162,37 +323,44 @@ public class GalleryActivity extends AppCompatActivity {
     private void observeViewModel() {
         Log.d(TAG, "Observing ViewModel");
 
-        // --- MODIFIED: The photo observer now passes the required context to the adapter ---
-        photoViewModel.getPhotos().observe(this, photos -> {
-            if (photos != null) {
-                Log.d(TAG, "Photo list updated with " + photos.size() + " photos for mode: " + currentViewMode + ", tagId: " + currentTagId);
-                // Pass the current context to the adapter so it can forward it to the detail activity
-                galleryAdapter.setPhotos(photos, currentTagId, currentViewMode);
+        // Pages are diffed and bound incrementally by the adapter; only the first page is needed to draw
+        photoViewModel.getPhotos().observe(this, pagingData -> {
+            if ("SEARCH".equals(currentViewMode)) {
+                return; // Search results own the grid until the user leaves them
+            }
+            Log.d(TAG, "Photo pages updated for mode: " + currentViewMode + ", tagId: " + currentTagId);
+            galleryAdapter.setViewContext(currentTagId, currentViewMode);
+            galleryAdapter.submitData(getLifecycle(), pagingData);
+        });
 
-                if (photos.isEmpty()) {
-                    emptyStateText.setVisibility(View.VISIBLE);
-                    photosRecyclerView.setVisibility(View.GONE);
-                } else {
-                    emptyStateText.setVisibility(View.GONE);
-                    photosRecyclerView.setVisibility(View.VISIBLE);
-                }
+        photoViewModel.getSearchResults().observe(this, results -> {
+            if (results != null && "SEARCH".equals(currentViewMode)) {
+                Log.d(TAG, "Search returned " + results.size() + " photos");
+                galleryAdapter.setViewContext(-1, currentViewMode);
+                galleryAdapter.submitData(getLifecycle(), PagingData.from(results));
             }
         });
-        // --- END MODIFICATION ---
-
-        photoViewModel.getTags().observe(this, tags -> {
-            if (tags != null) {
-                Log.d(TAG, "Tags loaded: " + tags.size());
-                new Thread(() -> {
-                    List<Integer> photoCounts = new ArrayList<>();
-                    for (Tag tagItem : tags) {
-                        int count = photoViewModel.getRepository().getPhotoCountForTag(tagItem.id);
-                        photoCounts.add(count);
-                    }
-                    runOnUiThread(() -> {
-                        tagsAdapter.setTags(tags, photoCounts);
-                    });
-                }).start();
+
+        galleryAdapter.addLoadStateListener(loadStates -> {
+            if (photosView.getVisibility() != View.VISIBLE) {
+                return Unit.INSTANCE;
+            }
+            boolean loaded = loadStates.getRefresh() instanceof LoadState.NotLoading;
+            if (loaded && galleryAdapter.getItemCount() == 0) {
+                emptyStateText.setVisibility(View.VISIBLE);
+                photosRecyclerView.setVisibility(View.GONE);
+            } else {
+                emptyStateText.setVisibility(View.GONE);
+                photosRecyclerView.setVisibility(View.VISIBLE);
+            }
+            return Unit.INSTANCE;
+        });
+
+        // Tag names, photo counts and latest timestamps come from one aggregate query
+        photoViewModel.getTagsWithPhotoCounts().observe(this, tagsWithCounts -> {
+            if (tagsWithCounts != null) {
+                Log.d(TAG, "Tags loaded: " + tagsWithCounts.size());
+                tagsAdapter.setTags(tagsWithCounts);
             }
         });
 
@@ -237,23 +405,70 @@ public class GalleryActivity extends AppCompatActivity {
             showDateFilterDialog();
         });
 
-        clearFiltersButton.setOnClickListener(v -> {
-            if (currentTag != null) {
-                showPhotosForTag(currentTag);
-            } else {
-                photoViewModel.loadPhotos();
-            }
-        });
+        clearFiltersButton.setOnClickListener(v -> clearTagFilter());
     }
+    // Month, then day, each listed with its photo count; periods without photos are not offered.
+    // Counts are scoped to the active tag filter in FILTER mode, else to the current tag or library
     private void showDateFilterDialog() {
-        Calendar calendar = Calendar.getInstance();
-        int year = calendar.get(Calendar.YEAR);
-        int month = calendar.get(Calendar.MONTH);
+        int scopeTagId = currentTagId;
+        TagFilter scopeFilter = "FILTER".equals(currentViewMode) ? activeFilter : null;
+        PhotoViewModel.HistogramCallback onMonths = months -> {
+            if (months.isEmpty()) {
+                Toast.makeText(this, "No photos to filter", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            String[] labels = new String[months.size()];
+            for (int i = 0; i < months.size(); i++) {
+                YearMonth month = YearMonth.parse(months.get(i).getPeriod());
+                labels[i] = MONTH_FORMAT.format(month) + " (" + months.get(i).getPhotoCount() + ")";
+            }
+            new AlertDialog.Builder(this, R.style.AlertDialogTheme)
+                    .setTitle("Filter by month")
+                    .setItems(labels, (dialog, which) ->
+                            showDayFilterDialog(scopeTagId, scopeFilter, months.get(which)))
+                    .setNegativeButton("Cancel", null)
+                    .show();
+        };
+        if (scopeFilter != null) {
+            photoViewModel.loadMonthHistogram(scopeFilter, onMonths);
+        } else {
+            photoViewModel.loadMonthHistogram(scopeTagId, onMonths);
+        }
+    }
 
-        String[] months = {"January", "February", "March", "April", "May", "June",
-                "July", "August", "September", "October", "November", "December"};
+    private void showDayFilterDialog(int scopeTagId, TagFilter scopeFilter, DateBucket monthBucket) {
+        YearMonth month = YearMonth.parse(monthBucket.getPeriod());
+        PhotoViewModel.HistogramCallback onDays = days -> {
+            String[] labels = new String[days.size() + 1];
+            labels[0] = "Whole month (" + monthBucket.getPhotoCount() + ")";
+            for (int i = 0; i < days.size(); i++) {
+                LocalDate day = LocalDate.parse(days.get(i).getPeriod());
+                labels[i + 1] = DAY_FORMAT.format(day) + " (" + days.get(i).getPhotoCount() + ")";
+            }
+            new AlertDialog.Builder(this, R.style.AlertDialogTheme)
+                    .setTitle(MONTH_FORMAT.format(month))
+                    .setItems(labels, (dialog, which) -> {
+                        if (which == 0) {
+                            applyDateRange(DateRange.forMonth(month), MONTH_FORMAT.format(month));
+                        } else {
+                            LocalDate day = LocalDate.parse(days.get(which - 1).getPeriod());
+                            applyDateRange(DateRange.forDay(day), DAY_FORMAT.format(day));
+                        }
+                    })
+                    .setNegativeButton("Cancel", null)
+                    .show();
+        };
+        if (scopeFilter != null) {
+            photoViewModel.loadDayHistogram(scopeFilter, month, onDays);
+        } else {
+            photoViewModel.loadDayHistogram(scopeTagId, month, onDays);
+        }
+    }
 
-        Toast.makeText(this, "Filter by: " + months[month] + " " + year, Toast.LENGTH_SHORT).show();
-        Toast.makeText(this, "Date filtering would filter photos by selected date range", Toast.LENGTH_LONG).show();
+    private void applyDateRange(DateRange range, String label) {
+        Log.d(TAG, "Date range " + label + " for mode: " + currentViewMode + ", tagId: " + currentTagId);
+        dateFilterButton.setText(label);
+        // Served by the (timestamp, id) index range of the current tag, filter or library
+        photoViewModel.setDateRange(range);
     }
-}
+}
\ No newline at end of file
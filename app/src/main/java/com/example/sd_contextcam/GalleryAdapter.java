@@ -3,7 +3,6 @@ package com.example.sd_contextcam;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -12,9 +11,15 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 // ADD this import
 import androidx.annotation.NonNull;
+import androidx.paging.PagingDataAdapter;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.example.sd_contextcam.data.Photo;
+import com.example.sd_contextcam.data.PhotoGridItem;
+import com.example.sd_contextcam.image.ImageLoader;
+import com.example.sd_contextcam.image.Placeholder;
+import com.example.sd_contextcam.image.ThumbnailCache;
 // REMOVE this import, it's not used here
 // import com.google.android.material.chip.Chip;
 
@@ -26,30 +31,51 @@ import java.util.List;
 import java.util.Locale;
 import java.util.stream.Collectors;
 
-public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.PhotoViewHolder> {
-    private List<Photo> photos = new ArrayList<>();
+public class GalleryAdapter extends PagingDataAdapter<PhotoGridItem, GalleryAdapter.PhotoViewHolder> {
+    private static final DiffUtil.ItemCallback<PhotoGridItem> DIFF_CALLBACK = new DiffUtil.ItemCallback<PhotoGridItem>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull PhotoGridItem oldItem, @NonNull PhotoGridItem newItem) {
+            return oldItem.id == newItem.id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull PhotoGridItem oldItem, @NonNull PhotoGridItem newItem) {
+            return oldItem.timestamp == newItem.timestamp
+                    && oldItem.encrypted == newItem.encrypted
+                    && oldItem.filePath.equals(newItem.filePath);
+        }
+    };
+
     private OnPhotoClickListener onPhotoClickListener;
     private int currentTagId = -1;
     private String currentViewMode = "TAG";
+    // Width of one grid cell, the size thumbnails are decoded at
+    private int thumbnailSizePx;
 
     public interface OnPhotoClickListener {
-        void onPhotoClick(Photo photo);
+        void onPhotoClick(PhotoGridItem photo);
+    }
+
+    public GalleryAdapter() {
+        super(DIFF_CALLBACK);
     }
 
     public void setOnPhotoClickListener(OnPhotoClickListener listener) {
         this.onPhotoClickListener = listener;
     }
 
-    public void setPhotos(List<Photo> photos, int tagId, String viewMode) {
-        this.photos = (photos != null) ? photos : new ArrayList<>();
+    // Pages themselves arrive through submitData(); this only records what they belong to
+    public void setViewContext(int tagId, String viewMode) {
         this.currentTagId = tagId;
         this.currentViewMode = (viewMode != null) ? viewMode : "TAG";
-        notifyDataSetChanged();
     }
 
     @NonNull
     @Override
     public PhotoViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        if (thumbnailSizePx == 0) {
+            thumbnailSizePx = cellWidth(parent);
+        }
         View view = LayoutInflater.from(parent.getContext())
                 .inflate(R.layout.list_item_photo_grid, parent, false);
         return new PhotoViewHolder(view);
@@ -57,18 +83,33 @@ public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.PhotoVie
 
     @Override
     public void onBindViewHolder(@NonNull PhotoViewHolder holder, int position) {
-        Photo photo = photos.get(position);
-        holder.bind(photo); // Pass only photo
+        PhotoGridItem photo = getItem(position);
+        if (photo != null) {
+            holder.bind(photo); // Pass only photo
+        }
     }
 
     @Override
-    public int getItemCount() {
-        return photos.size();
+    public void onViewRecycled(@NonNull PhotoViewHolder holder) {
+        super.onViewRecycled(holder);
+        holder.cancelLoad();
+    }
+
+    // Width of one cell of the grid the holders are created in; also used by VaultAdapter
+    static int cellWidth(ViewGroup parent) {
+        int width = parent.getWidth() > 0 ? parent.getWidth() : parent.getResources().getDisplayMetrics().widthPixels;
+        int spans = 1;
+        if (parent instanceof RecyclerView
+                && ((RecyclerView) parent).getLayoutManager() instanceof GridLayoutManager) {
+            spans = ((GridLayoutManager) ((RecyclerView) parent).getLayoutManager()).getSpanCount();
+        }
+        return Math.max(width / spans, 1);
     }
 
     class PhotoViewHolder extends RecyclerView.ViewHolder {
         private ImageView photoThumbnail;
         private ImageView vaultIcon;
+        private ImageLoader.Request pendingLoad;
 
         public PhotoViewHolder(@NonNull View itemView) {
             super(itemView);
@@ -76,9 +117,9 @@ public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.PhotoVie
             vaultIcon = itemView.findViewById(R.id.vault_icon);
         }
 
-        public void bind(Photo photo) {
+        public void bind(PhotoGridItem photo) {
             // Load photo thumbnail
-            loadImage(photo.getFilePath(), photo.isEncrypted());
+            loadImage(photo);
 
             // Show vault icon if encrypted
             if (vaultIcon != null) {
@@ -95,9 +136,9 @@ public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.PhotoVie
                 Context context = v.getContext();
                 Intent intent = new Intent(context, PhotoDetailActivity.class);
 
-                // 1. Get the list of all photo file paths from the current adapter state.
-                List<String> allPhotoPaths = photos.stream()
-                        .map(Photo::getFilePath)
+                // 1. Get the file paths of every page loaded so far.
+                List<String> allPhotoPaths = snapshot().getItems().stream()
+                        .map(PhotoGridItem::getFilePath)
                         .collect(Collectors.toList());
 
                 // 2. Pass the full list of paths to enable swiping
@@ -119,50 +160,43 @@ public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.PhotoVie
             // --- END MODIFICATION ---
         }
 
-        // --- MODIFIED: loadImage handles encryption using CryptoUtils ---
-        private void loadImage(String imagePath, boolean isEncrypted) {
-            new Thread(() -> {
-                final Bitmap bitmap;
-                if (isEncrypted) {
-                    // Decrypt photo using your existing CryptoUtils class
-                    bitmap = CryptoUtils.decryptPhoto(imagePath, itemView.getContext());
-                } else {
-                    // This case is for non-encrypted photos, if you have any.
-                    bitmap = BitmapFactory.decodeFile(imagePath);
-                }
-
-                // Update UI on main thread
-                photoThumbnail.post(() -> {
-                    if (bitmap != null) {
-                        photoThumbnail.setImageBitmap(bitmap);
-                    } else {
-                        postImageError();
-                    }
-                });
-            }).start();
+        // Memory hits bind synchronously; anything else is loaded through the cache on the
+        // shared image pool. Rebinding or recycling cancels the previous request, so its result
+        // can never land in this cell.
+        private void loadImage(PhotoGridItem photo) {
+            cancelLoad();
+            int size = thumbnailSizePx;
+            ThumbnailCache cache = ThumbnailCache.get(itemView.getContext());
+            Bitmap cached = cache.peek(photo.getId(), size);
+            if (cached != null) {
+                photoThumbnail.setImageBitmap(cached);
+                return;
+            }
+            Bitmap placeholder = Placeholder.decode(photo.getPlaceholder());
+            if (placeholder != null) {
+                photoThumbnail.setImageBitmap(placeholder);
+            } else {
+                // A recycled cell would otherwise keep showing its previous photo until the load lands
+                photoThumbnail.setImageResource(R.drawable.ic_gallery);
+            }
+            pendingLoad = ImageLoader.get().load("thumb:" + photo.getId() + ":" + size,
+                    ImageLoader.PRIORITY_VISIBLE,
+                    () -> cache.load(photo.getId(), photo.getFilePath(), photo.isEncrypted(), size),
+                    bitmap -> {
+                        pendingLoad = null;
+                        if (bitmap != null) {
+                            photoThumbnail.setImageBitmap(bitmap);
+                        } else {
+                            photoThumbnail.setImageResource(R.drawable.ic_error);
+                        }
+                    });
         }
 
-        private void postImageError() {
-            photoThumbnail.post(() -> {
-                photoThumbnail.setImageResource(R.drawable.ic_error); // Use the error icon
-            });
-        }
-        // --- END MODIFICATION ---
-
-        private int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
-            final int height = options.outHeight;
-            final int width = options.outWidth;
-            int inSampleSize = 1;
-
-            if (height > reqHeight || width > reqWidth) {
-                final int halfHeight = height / 2;
-                final int halfWidth = width / 2;
-                while ((halfHeight / inSampleSize) >= reqHeight
-                        && (halfWidth / inSampleSize) >= reqWidth) {
-                    inSampleSize *= 2;
-                }
+        void cancelLoad() {
+            if (pendingLoad != null) {
+                pendingLoad.cancel();
+                pendingLoad = null;
             }
-            return inSampleSize;
         }
     }
 }
@@ -11,14 +11,15 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.sd_contextcam.data.Photo;
 import com.example.sd_contextcam.data.Tag;
-import com.example.sd_contextcam.data.TagRepository;
 import com.example.sd_contextcam.onboarding.BatchAdapter;
 import com.example.sd_contextcam.onboarding.PhotoBatch;
+import com.example.sd_contextcam.viewmodel.PhotoViewModel;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -34,7 +35,7 @@ public class OnboardingActivity extends AppCompatActivity {
     private ProgressBar progressBar;
     private TextView progressText;
     
-    private TagRepository tagRepository;
+    private PhotoViewModel photoViewModel;
     private List<PhotoBatch> photoBatches;
     
     @Override
@@ -67,23 +68,12 @@ public class OnboardingActivity extends AppCompatActivity {
         batchRecyclerView.setLayoutManager(new LinearLayoutManager(this));
         batchRecyclerView.setAdapter(batchAdapter);
         
-        batchAdapter.setOnTagApplyListener((batch, tag) -> {
-            // Apply tag to all photos in the batch on a background thread
-            new Thread(() -> {
-                applyTagToBatchPhotos(batch, tag);
-                
-                // Update UI on main thread
-                runOnUiThread(() -> {
-                    // Remove the batch from the list since it's been processed
-                    photoBatches.remove(batch);
-                    batchAdapter.setBatches(photoBatches);
-                });
-            }).start();
-        });
+        // Tagging runs through the ViewModel, which hands the writes to the database writer
+        batchAdapter.setOnTagApplyListener(this::applyTagToBatchPhotos);
     }
     
     private void setupRepository() {
-        tagRepository = new TagRepository(this);
+        photoViewModel = new ViewModelProvider(this).get(PhotoViewModel.class);
     }
     
     private void setupClickListeners() {
@@ -96,19 +86,14 @@ public class OnboardingActivity extends AppCompatActivity {
     }
     
     private void loadExistingTags() {
-        // Load existing tags on a background thread
-        new Thread(() -> {
-            List<Tag> tags = tagRepository.getAllTags();
+        // Observed from Room, so tags created by a batch show up in the autocomplete on their own
+        photoViewModel.getTags().observe(this, tags -> {
             List<String> tagNames = new ArrayList<>();
             for (Tag tag : tags) {
                 tagNames.add(tag.getName());
             }
-            
-            // Update UI on main thread
-            runOnUiThread(() -> {
-                batchAdapter.setAllTags(tagNames);
-            });
-        }).start();
+            batchAdapter.setAllTags(tagNames);
+        });
     }
     
     private void scanPhotoBatches() {
@@ -293,38 +278,26 @@ public class OnboardingActivity extends AppCompatActivity {
     }
     
     private void applyTagToBatchPhotos(PhotoBatch batch, String tagName) {
-        // Get or create the tag
-        Tag tag = tagRepository.getTagByName(tagName);
-        if (tag == null) {
-            tag = new Tag();
-            tag.setName(tagName);
-            tagRepository.insertTag(tag);
-            // Get the updated tag with its ID
-            tag = tagRepository.getTagByName(tagName);
-        }
-        
-        // Apply tag to all photos in the batch
-        for (String photoPath : batch.getPhotoPaths()) {
-            // Get or create photo in database
-            Photo photo = tagRepository.getPhotoByFilePath(photoPath);
-            if (photo == null) {
-                photo = new Photo();
-                photo.setFilePath(photoPath);
-                photo.setTimestamp(System.currentTimeMillis()); // Use current time if not available
-                long photoId = tagRepository.insertPhoto(photo);
-                // Get the inserted photo with its ID
-                photo = tagRepository.getPhotoById((int) photoId);
-            }
-            
-            // Add tag to photo
-            if (photo != null) {
-                tagRepository.addTagToPhoto(photo.getId(), tag.getId());
-            }
-        }
-        
-        // Show toast on main thread
-        runOnUiThread(() -> {
-            Toast.makeText(this, "Tag '" + tagName + "' applied to " + batch.getPhotoCount() + " photos", Toast.LENGTH_SHORT).show();
-        });
+        progressBar.setVisibility(View.VISIBLE);
+        progressText.setVisibility(View.VISIBLE);
+        progressText.setText("Tagging photos as '" + tagName + "'...");
+
+        // Tag, photo rows and join rows are resolved in bulk, one transaction per chunk
+        photoViewModel.addTagToPhotoPaths(tagName, batch.getPhotoPaths(),
+                (processed, total) -> runOnUiThread(() ->
+                        progressText.setText("Tagging photos as '" + tagName + "': " + processed + "/" + total)),
+                taggedCount -> {
+                    progressBar.setVisibility(View.GONE);
+                    progressText.setVisibility(View.GONE);
+                    if (taggedCount < 0) {
+                        Toast.makeText(this, "Error creating tag '" + tagName + "'", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    Toast.makeText(this, "Tag '" + tagName + "' applied to " + taggedCount + " photos", Toast.LENGTH_SHORT).show();
+
+                    // Remove the batch from the list since it's been processed
+                    photoBatches.remove(batch);
+                    batchAdapter.setBatches(photoBatches);
+                });
     }
 }
\ No newline at end of file
@@ -46,6 +46,8 @@ public class PhotoDetailActivity extends AppCompatActivity {
         // Set up the adapter for the ViewPager
         PhotoPagerAdapter adapter = new PhotoPagerAdapter(this, photoPaths, isVaultPhoto);
         viewPager.setAdapter(adapter);
+        // Keep the pages either side built, so their base images decode before they are swiped in
+        viewPager.setOffscreenPageLimit(1);
 
         // Go to the photo that was actually clicked
         viewPager.setCurrentItem(currentPosition, false);
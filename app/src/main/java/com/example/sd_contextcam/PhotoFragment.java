@@ -1,21 +1,37 @@
 // Create a new file: PhotoFragment.java
 package com.example.sd_contextcam;
 
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.os.Bundle;
+import android.util.DisplayMetrics;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ImageView;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
 
+import com.example.sd_contextcam.image.ImageLoader;
+import com.example.sd_contextcam.image.RegionSource;
+import com.example.sd_contextcam.image.ThumbnailDecoder;
+import com.example.sd_contextcam.image.VaultImageSource;
+import com.example.sd_contextcam.image.ZoomableImageView;
+
+import java.io.IOException;
+
 public class PhotoFragment extends Fragment {
 
     private static final String ARG_PHOTO_PATH = "arg_photo_path";
     private static final String ARG_IS_VAULT = "arg_is_vault";
 
+    private static final String TAG = "PhotoFragment";
+
+    private ImageLoader.Request pendingLoad;
+    private Page page;
+
     public static PhotoFragment newInstance(String photoPath, boolean isVault) {
         PhotoFragment fragment = new PhotoFragment();
         Bundle args = new Bundle();
@@ -34,25 +50,109 @@ public class PhotoFragment extends Fragment {
     @Override
     public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
-        ImageView imageView = view.findViewById(R.id.fullScreenImageView);
+        ZoomableImageView imageView = view.findViewById(R.id.fullScreenImageView);
 
         if (getArguments() != null) {
             String photoPath = getArguments().getString(ARG_PHOTO_PATH);
             boolean isVault = getArguments().getBoolean(ARG_IS_VAULT);
+            Context appContext = requireContext().getApplicationContext();
+            DisplayMetrics metrics = getResources().getDisplayMetrics();
+            int screenWidth = metrics.widthPixels;
+            int screenHeight = metrics.heightPixels;
+            Page loading = new Page();
+            page = loading;
+
+            // Neighbouring pages are created ahead of time, so they start as prefetches and
+            // are promoted in onResume once they are the page on screen
+            // Per view, since each view's Page owns its own decoder
+            String key = "page:" + photoPath + "@" + System.identityHashCode(loading);
+            pendingLoad = ImageLoader.get().load(key, ImageLoader.PRIORITY_PREFETCH,
+                    () -> loadBase(loading, photoPath, isVault, appContext, screenWidth, screenHeight),
+                    bitmap -> {
+                        pendingLoad = null;
+                        if (bitmap != null) {
+                            imageView.setImage(bitmap, loading.baseSample, loading.source, key);
+                        } else {
+                            imageView.showError(ContextCompat.getDrawable(appContext, R.drawable.ic_error)); // Show error icon
+                        }
+                    });
+        }
+    }
+
+    // Screen-sized sample of the whole photo plus a region decoder for zoomed-in tiles. Formats
+    // without a region decoder fall back to a plain downsampled decode, shown without tiles.
+    private static Bitmap loadBase(Page page, String photoPath, boolean isVault, Context context,
+                                   int screenWidth, int screenHeight) {
+        RegionSource source;
+        try {
+            source = RegionSource.open(photoPath, isVault, context);
+        } catch (IOException e) {
+            Log.w(TAG, "No region decoder for " + photoPath, e);
+            return isVault
+                    ? VaultImageSource.decode(photoPath, context, screenWidth, screenHeight)
+                    : ThumbnailDecoder.decodeFile(photoPath, screenWidth, screenHeight, true);
+        }
+        int sample = source.baseSampleFor(screenWidth, screenHeight);
+        Bitmap base = source.decodeBase(sample);
+        if (base == null || !page.attach(source, sample)) {
+            source.close();
+            return null;
+        }
+        return base;
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (pendingLoad != null) {
+            pendingLoad.promote();
+        }
+    }
 
-            Bitmap bitmap = null;
-            if (isVault) {
-                // You must have a way to decrypt the photo for display
-                bitmap = CryptoUtils.decryptPhoto(photoPath, getContext());
-            } else {
-                // Logic for non-vault photos
-                bitmap = CryptoUtils.loadNormalPhoto(photoPath);
+    @Override
+    public void onPause() {
+        super.onPause();
+        // Swiped away: start at fit next time and give the tile memory back now
+        View view = getView();
+        if (view != null) {
+            ((ZoomableImageView) view.findViewById(R.id.fullScreenImageView)).resetZoom();
+        }
+    }
+
+    @Override
+    public void onDestroyView() {
+        if (pendingLoad != null) {
+            pendingLoad.cancel();
+            pendingLoad = null;
+        }
+        if (page != null) {
+            page.close();
+            page = null;
+        }
+        super.onDestroyView();
+    }
+
+    // The region decoder of one view of the page. Closing it also closes a decoder that is
+    // still being opened in the background when the view goes away.
+    private static final class Page {
+        RegionSource source;
+        int baseSample = 1;
+        private boolean closed;
+
+        synchronized boolean attach(RegionSource source, int baseSample) {
+            if (closed) {
+                return false;
             }
+            this.source = source;
+            this.baseSample = baseSample;
+            return true;
+        }
 
-            if (bitmap != null) {
-                imageView.setImageBitmap(bitmap);
-            } else {
-                imageView.setImageResource(R.drawable.ic_error); // Show error icon
+        synchronized void close() {
+            closed = true;
+            if (source != null) {
+                source.close();
+                source = null;
             }
         }
     }
@@ -2,7 +2,7 @@ package com.example.sd_contextcam; // Make sure package name is correct
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.util.DisplayMetrics;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -12,7 +12,9 @@ import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.sd_contextcam.data.Photo;
-import com.example.sd_contextcam.security.EncryptionUtil; // Assuming you have this
+import com.example.sd_contextcam.image.ImageLoader;
+import com.example.sd_contextcam.image.ThumbnailDecoder;
+import com.example.sd_contextcam.image.VaultImageSource;
 
 import java.io.File;
 import java.util.List;
@@ -21,12 +23,10 @@ public class PhotoViewPagerAdapter extends RecyclerView.Adapter<PhotoViewPagerAd
 
     private List<Photo> photoList;
     private Context context;
-    private EncryptionUtil encryptionUtil;
 
     public PhotoViewPagerAdapter(List<Photo> photoList, Context context) {
         this.photoList = photoList;
         this.context = context;
-        this.encryptionUtil = new EncryptionUtil(context); // Init encryption utility
     }
 
     @NonNull
@@ -47,8 +47,15 @@ public class PhotoViewPagerAdapter extends RecyclerView.Adapter<PhotoViewPagerAd
         return photoList.size();
     }
 
+    @Override
+    public void onViewRecycled(@NonNull PhotoViewHolder holder) {
+        super.onViewRecycled(holder);
+        holder.cancelLoad();
+    }
+
     class PhotoViewHolder extends RecyclerView.ViewHolder {
         ImageView imageView;
+        private ImageLoader.Request pendingLoad;
 
         public PhotoViewHolder(@NonNull View itemView) {
             super(itemView);
@@ -56,14 +63,23 @@ public class PhotoViewPagerAdapter extends RecyclerView.Adapter<PhotoViewPagerAd
         }
 
         void bindPhoto(Photo photo) {
-            // Load photo in a background thread to avoid freezing the UI
-            new Thread(() -> {
-                Bitmap bitmap = loadBitmap(photo);
-                // Post the result back to the UI thread
-                if (bitmap != null) {
-                    imageView.post(() -> imageView.setImageBitmap(bitmap));
-                }
-            }).start();
+            // Load on the shared image pool; a rebind or recycle cancels the previous page's load
+            cancelLoad();
+            pendingLoad = ImageLoader.get().load("full:" + photo.getFilePath(), ImageLoader.PRIORITY_VISIBLE,
+                    () -> loadBitmap(photo),
+                    bitmap -> {
+                        pendingLoad = null;
+                        if (bitmap != null) {
+                            imageView.setImageBitmap(bitmap);
+                        }
+                    });
+        }
+
+        void cancelLoad() {
+            if (pendingLoad != null) {
+                pendingLoad.cancel();
+                pendingLoad = null;
+            }
         }
 
         private Bitmap loadBitmap(Photo photo) {
@@ -72,20 +88,14 @@ public class PhotoViewPagerAdapter extends RecyclerView.Adapter<PhotoViewPagerAd
                 return null;
             }
 
+            // Decode at screen size; vault photos are decrypted as a stream, never to a temp file
+            DisplayMetrics metrics = context.getResources().getDisplayMetrics();
             if (photo.isEncrypted()) {
-                // Decrypt to a temporary file
-                File tempFile = new File(context.getCacheDir(), "temp_decrypted.jpg");
-                boolean success = encryptionUtil.decryptPhoto(photo.getFilePath(), tempFile.getAbsolutePath());
-                if (success) {
-                    Bitmap bmp = BitmapFactory.decodeFile(tempFile.getAbsolutePath());
-                    tempFile.delete(); // Clean up temp file
-                    return bmp;
-                }
-            } else {
-                // Load standard photo
-                return BitmapFactory.decodeFile(photo.getFilePath());
+                return VaultImageSource.decode(photo.getFilePath(), context,
+                        metrics.widthPixels, metrics.heightPixels);
             }
-            return null;
+            return ThumbnailDecoder.decodeFile(photo.getFilePath(),
+                    metrics.widthPixels, metrics.heightPixels, true);
         }
     }
 }
\ No newline at end of file
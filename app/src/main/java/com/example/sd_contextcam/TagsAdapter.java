@@ -6,31 +6,56 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.sd_contextcam.data.Tag;
+import com.example.sd_contextcam.data.TagWithCount;
 import com.google.android.material.chip.Chip;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+
+// Lists are diffed off the main thread, so a refresh only rebinds the tags whose counts changed
+public class TagsAdapter extends ListAdapter<TagWithCount, TagsAdapter.TagViewHolder> {
+    private static final DiffUtil.ItemCallback<TagWithCount> DIFF_CALLBACK = new DiffUtil.ItemCallback<TagWithCount>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull TagWithCount oldItem, @NonNull TagWithCount newItem) {
+            return oldItem.tag.id == newItem.tag.id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull TagWithCount oldItem, @NonNull TagWithCount newItem) {
+            return oldItem.photoCount == newItem.photoCount
+                    && oldItem.childCount == newItem.childCount
+                    && Objects.equals(oldItem.latestTimestamp, newItem.latestTimestamp)
+                    && Objects.equals(oldItem.tag.name, newItem.tag.name);
+        }
+    };
 
-public class TagsAdapter extends RecyclerView.Adapter<TagsAdapter.TagViewHolder> {
-    private List<Tag> tags = new ArrayList<>();
-    private List<Integer> photoCounts = new ArrayList<>();
     private OnTagClickListener onTagClickListener;
 
     public interface OnTagClickListener {
-        void onTagClick(Tag tag);
+        void onTagClick(TagWithCount item);
+    }
+
+    public TagsAdapter() {
+        super(DIFF_CALLBACK);
+        setHasStableIds(true);
     }
 
     public void setOnTagClickListener(OnTagClickListener listener) {
         this.onTagClickListener = listener;
     }
 
-    public void setTags(List<Tag> tags, List<Integer> photoCounts) {
-        this.tags = tags;
-        this.photoCounts = photoCounts;
-        notifyDataSetChanged();
+    public void setTags(List<TagWithCount> tags) {
+        submitList(tags);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).tag.id;
     }
 
     @NonNull
@@ -43,14 +68,7 @@ public class TagsAdapter extends RecyclerView.Adapter<TagsAdapter.TagViewHolder>
 
     @Override
     public void onBindViewHolder(@NonNull TagViewHolder holder, int position) {
-        Tag tag = tags.get(position);
-        int photoCount = position < photoCounts.size() ? photoCounts.get(position) : 0;
-        holder.bind(tag, photoCount);
-    }
-
-    @Override
-    public int getItemCount() {
-        return tags.size();
+        holder.bind(getItem(position));
     }
 
     class TagViewHolder extends RecyclerView.ViewHolder {
@@ -63,14 +81,16 @@ public class TagsAdapter extends RecyclerView.Adapter<TagsAdapter.TagViewHolder>
             photoCountText = itemView.findViewById(R.id.photoCountText);
         }
 
-        public void bind(Tag tag, int photoCount) {
-            tagNameText.setText(tag.getName());
-            photoCountText.setText(String.valueOf(photoCount));
+        public void bind(TagWithCount item) {
+            Tag tag = item.getTag();
+            // A trailing marker shows the tag has nested tags to drill into
+            tagNameText.setText(item.getChildCount() > 0 ? tag.getName() + " \u203A" : tag.getName());
+            photoCountText.setText(String.valueOf(item.getPhotoCount()));
             
             // Set click listener
             itemView.setOnClickListener(v -> {
                 if (onTagClickListener != null) {
-                    onTagClickListener.onTagClick(tag);
+                    onTagClickListener.onTagClick(item);
                 }
             });
         }
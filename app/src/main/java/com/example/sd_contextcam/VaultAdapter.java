@@ -2,28 +2,70 @@ package com.example.sd_contextcam;
 
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
-import java.io.Serializable; // Import Serializable
+
+import com.example.sd_contextcam.image.ImageLoader;
+import com.example.sd_contextcam.image.ThumbnailCache;
+
 import java.util.ArrayList;
 import java.util.List;
 
-public class VaultAdapter extends RecyclerView.Adapter<VaultAdapter.VaultPhotoViewHolder> {
-    private List<String> encryptedPhotoPaths = new ArrayList<>();
-    // ... (listener interface is fine)
+// Vault files are immutable once written, so a path identifies both the item and its contents
+public class VaultAdapter extends ListAdapter<String, VaultAdapter.VaultPhotoViewHolder> {
+    private static final DiffUtil.ItemCallback<String> DIFF_CALLBACK = new DiffUtil.ItemCallback<String>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull String oldItem, @NonNull String newItem) {
+            return oldItem.equals(newItem);
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull String oldItem, @NonNull String newItem) {
+            return oldItem.equals(newItem);
+        }
+    };
+
+    private int thumbnailSizePx;
+
+    public VaultAdapter() {
+        super(DIFF_CALLBACK);
+        setHasStableIds(true);
+    }
 
     public void setEncryptedPhotoPaths(List<String> encryptedPhotoPaths) {
-        this.encryptedPhotoPaths = encryptedPhotoPaths;
-        notifyDataSetChanged();
+        // Copied, so later changes to the caller's list cannot race the background diff
+        submitList(new ArrayList<>(encryptedPhotoPaths));
+    }
+
+    // Paths have no database id, so the id is a 64-bit FNV-1a hash of the path: stable across
+    // submits with nothing to remember, and a collision within one vault is vanishingly unlikely
+    @Override
+    public long getItemId(int position) {
+        return stableId(getItem(position));
+    }
+
+    static long stableId(String path) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < path.length(); i++) {
+            hash ^= path.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
     }
 
     @NonNull
     @Override
     public VaultPhotoViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        if (thumbnailSizePx == 0) {
+            thumbnailSizePx = GalleryAdapter.cellWidth(parent);
+        }
         View view = LayoutInflater.from(parent.getContext())
                 .inflate(R.layout.item_vault_photo, parent, false);
         return new VaultPhotoViewHolder(view);
@@ -31,19 +73,19 @@ public class VaultAdapter extends RecyclerView.Adapter<VaultAdapter.VaultPhotoVi
 
     @Override
     public void onBindViewHolder(@NonNull VaultPhotoViewHolder holder, int position) {
-        String photoPath = encryptedPhotoPaths.get(position);
-        // Pass the full list and the current position to the ViewHolder
-        holder.bind(photoPath, encryptedPhotoPaths, position);
+        holder.bind(getItem(position));
     }
 
     @Override
-    public int getItemCount() {
-        return encryptedPhotoPaths.size();
+    public void onViewRecycled(@NonNull VaultPhotoViewHolder holder) {
+        super.onViewRecycled(holder);
+        holder.cancelLoad();
     }
 
     class VaultPhotoViewHolder extends RecyclerView.ViewHolder {
         private ImageView photoThumbnail;
         private ImageView lockIcon;
+        private ImageLoader.Request pendingLoad;
 
         public VaultPhotoViewHolder(@NonNull View itemView) {
             super(itemView);
@@ -51,18 +93,21 @@ public class VaultAdapter extends RecyclerView.Adapter<VaultAdapter.VaultPhotoVi
             lockIcon = itemView.findViewById(R.id.lockIcon);
         }
 
-        // MODIFIED: bind() now accepts the full list and position
-        public void bind(String photoPath, List<String> allPhotoPaths, int position) {
-            // ... (placeholder thumbnail logic is fine for now)
-            photoThumbnail.setImageResource(R.drawable.ic_gallery);
+        public void bind(String photoPath) {
+            loadThumbnail(photoPath);
 
             itemView.setOnClickListener(v -> {
+                // Unchanged cells are not rebound when others move, so read the position now
+                int position = getAdapterPosition();
+                if (position == RecyclerView.NO_POSITION) {
+                    return;
+                }
                 Context context = v.getContext();
                 Intent intent = new Intent(context, PhotoDetailActivity.class);
 
                 // --- THIS IS THE FIX ---
                 // 1. Send the list of all photos
-                intent.putExtra(PhotoDetailActivity.EXTRA_PHOTO_LIST, (Serializable) allPhotoPaths);
+                intent.putExtra(PhotoDetailActivity.EXTRA_PHOTO_LIST, new ArrayList<>(getCurrentList()));
                 // 2. Send the position of the clicked photo
                 intent.putExtra(PhotoDetailActivity.EXTRA_CURRENT_POSITION, position);
                 // 3. Keep the vault flag
@@ -72,5 +117,34 @@ public class VaultAdapter extends RecyclerView.Adapter<VaultAdapter.VaultPhotoVi
                 context.startActivity(intent);
             });
         }
+
+        // Decrypts only the small encrypted thumbnail, not the full photo (see EncryptionUtil)
+        private void loadThumbnail(String photoPath) {
+            cancelLoad();
+            int size = thumbnailSizePx;
+            ThumbnailCache cache = ThumbnailCache.get(itemView.getContext());
+            Bitmap cached = cache.peekVault(photoPath, size);
+            if (cached != null) {
+                photoThumbnail.setImageBitmap(cached);
+                return;
+            }
+            photoThumbnail.setImageResource(R.drawable.ic_gallery);
+            pendingLoad = ImageLoader.get().load("vault-thumb:" + photoPath + ":" + size,
+                    ImageLoader.PRIORITY_VISIBLE,
+                    () -> cache.loadVault(photoPath, size),
+                    bitmap -> {
+                        pendingLoad = null;
+                        if (bitmap != null) {
+                            photoThumbnail.setImageBitmap(bitmap);
+                        }
+                    });
+        }
+
+        void cancelLoad() {
+            if (pendingLoad != null) {
+                pendingLoad.cancel();
+                pendingLoad = null;
+            }
+        }
     }
 }
@@ -3,39 +3,275 @@ package com.example.sd_contextcam.data;
 import android.content.Context;
 import android.util.Log;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Database(
-    entities = {Tag.class, Photo.class, PhotoTagJoin.class},
-    version = 2,  // Increased version number from 1 to 2
-    exportSchema = false
+    entities = {Tag.class, Photo.class, PhotoTagJoin.class, PhotoFts.class, TagFts.class, PhotoDayCount.class,
+        PhotoFileState.class},
+    version = 10,  // Increased version number from 9 to 10 for photos.placeholder
+    exportSchema = true
 )
 public abstract class AppDatabase extends RoomDatabase {
     private static final String TAG = "AppDatabase";
     public abstract TagDao tagDao();
     public abstract PhotoDao photoDao();
     public abstract PhotoTagJoinDao photoTagJoinDao();
+    public abstract PhotoFileStateDao photoFileStateDao();
+
+    // WAL lets these readers run alongside the single writer
+    private static final int READER_THREADS = 4;
 
     private static volatile AppDatabase INSTANCE;
+    private volatile DatabaseWriter writer;
+    private QueryStats queryStats;
+    private DeletePipeline deletePipeline;
+
+    // Latency, row counts and slow calls per repository method (see QueryStats)
+    public QueryStats getQueryStats() {
+        return queryStats;
+    }
+
+    // The serialized queue every repository write goes through
+    public DatabaseWriter getWriter() {
+        if (writer == null) {
+            synchronized (this) {
+                if (writer == null) {
+                    writer = new DatabaseWriter(this);
+                }
+            }
+        }
+        return writer;
+    }
+
+    // Chunked, non-blocking deletes of photos and tags, including their files
+    public DeletePipeline getDeletePipeline() {
+        return deletePipeline;
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Adds the (timestamp, id) index used by the paged gallery feed
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_photos_timestamp_id` ON `photos` (`timestamp`, `id`)");
+        }
+    };
+
+    // Unique photo paths and case-insensitive unique tag names. Existing duplicates are
+    // merged into the lowest id first so their tag links survive.
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            // Photos: point joins of duplicate paths at the surviving row, then drop the duplicates
+            database.execSQL("CREATE TEMP TABLE photo_keep AS " +
+                    "SELECT p.id AS oldId, k.keepId AS keepId FROM photos p " +
+                    "JOIN (SELECT filePath, MIN(id) AS keepId FROM photos GROUP BY filePath) k " +
+                    "ON p.filePath IS k.filePath WHERE p.id != k.keepId");
+            database.execSQL("INSERT OR IGNORE INTO photo_tag_join (photoId, tagId) " +
+                    "SELECT pk.keepId, j.tagId FROM photo_tag_join j JOIN photo_keep pk ON j.photoId = pk.oldId");
+            database.execSQL("DELETE FROM photo_tag_join WHERE photoId IN (SELECT oldId FROM photo_keep)");
+            database.execSQL("DELETE FROM photos WHERE id IN (SELECT oldId FROM photo_keep)");
+            database.execSQL("DROP TABLE photo_keep");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_photos_filePath` ON `photos` (`filePath`)");
+
+            // Tags: same merge, keyed on the case-folded name
+            database.execSQL("CREATE TEMP TABLE tag_keep AS " +
+                    "SELECT t.id AS oldId, k.keepId AS keepId FROM tags t " +
+                    "JOIN (SELECT name, MIN(id) AS keepId FROM tags GROUP BY name COLLATE NOCASE) k " +
+                    "ON t.name = k.name COLLATE NOCASE WHERE t.id != k.keepId");
+            database.execSQL("INSERT OR IGNORE INTO photo_tag_join (photoId, tagId) " +
+                    "SELECT j.photoId, tk.keepId FROM photo_tag_join j JOIN tag_keep tk ON j.tagId = tk.oldId");
+            database.execSQL("DELETE FROM photo_tag_join WHERE tagId IN (SELECT oldId FROM tag_keep)");
+            database.execSQL("UPDATE tags SET parentId = (SELECT keepId FROM tag_keep WHERE oldId = tags.parentId) " +
+                    "WHERE parentId IN (SELECT oldId FROM tag_keep)");
+            database.execSQL("DELETE FROM tags WHERE id IN (SELECT oldId FROM tag_keep)");
+            database.execSQL("DROP TABLE tag_keep");
+
+            // SQLite cannot change a column's collation in place, so rebuild tags with a NOCASE name
+            database.execSQL("CREATE TABLE IF NOT EXISTS `tags_new` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+                    "`name` TEXT COLLATE NOCASE, `parentId` INTEGER NOT NULL)");
+            database.execSQL("INSERT INTO tags_new (id, name, parentId) SELECT id, name, parentId FROM tags");
+            database.execSQL("DROP TABLE tags");
+            database.execSQL("ALTER TABLE tags_new RENAME TO tags");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_tags_name` ON `tags` (`name`)");
+        }
+    };
+
+    // Lets the recursive tag subtree queries find children without scanning tags
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_tags_parentId` ON `tags` (`parentId`)");
+        }
+    };
+
+    // External-content FTS4 tables over photo context fields and tag names, filled from the
+    // existing rows. Room re-creates the sync triggers after every migration; they are created
+    // here too so the tables never miss a write.
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `photos_fts` USING FTS4(" +
+                    "`calendarEvent` TEXT, `wifiNetwork` TEXT, tokenize=unicode61, content=`photos`)");
+            database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `tags_fts` USING FTS4(" +
+                    "`name` TEXT, tokenize=unicode61, content=`tags`)");
+            createFtsSyncTriggers(database, "photos", "photos_fts", "`calendarEvent`, `wifiNetwork`",
+                    "NEW.`calendarEvent`, NEW.`wifiNetwork`");
+            createFtsSyncTriggers(database, "tags", "tags_fts", "`name`", "NEW.`name`");
+            database.execSQL("INSERT INTO photos_fts(photos_fts) VALUES ('rebuild')");
+            database.execSQL("INSERT INTO tags_fts(tags_fts) VALUES ('rebuild')");
+        }
+    };
+
+    private static void createFtsSyncTriggers(SupportSQLiteDatabase database, String table, String ftsTable,
+                                              String columns, String newValues) {
+        String prefix = "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_" + ftsTable;
+        String delete = " BEGIN DELETE FROM `" + ftsTable + "` WHERE `docid`=OLD.`rowid`; END";
+        String insert = " BEGIN INSERT INTO `" + ftsTable + "`(`docid`, " + columns + ") VALUES (NEW.`rowid`, "
+                + newValues + "); END";
+        database.execSQL(prefix + "_BEFORE_UPDATE BEFORE UPDATE ON `" + table + "`" + delete);
+        database.execSQL(prefix + "_BEFORE_DELETE BEFORE DELETE ON `" + table + "`" + delete);
+        database.execSQL(prefix + "_AFTER_UPDATE AFTER UPDATE ON `" + table + "`" + insert);
+        database.execSQL(prefix + "_AFTER_INSERT AFTER INSERT ON `" + table + "`" + insert);
+    }
+
+    // Per-day photo counts for the date filter's histogram, filled from the existing photos
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `photo_day_counts` (`day` TEXT NOT NULL, " +
+                    "`photoCount` INTEGER NOT NULL, PRIMARY KEY(`day`))");
+            database.execSQL("INSERT INTO photo_day_counts (day, photoCount) " +
+                    "SELECT " + LOCAL_DAY.replace("%s", "timestamp") + ", COUNT(*) FROM photos GROUP BY 1");
+            createDayCountTriggers(database);
+        }
+    };
+
+    // Local calendar day of a millisecond timestamp column, as yyyy-MM-dd
+    static final String LOCAL_DAY = "date(%s / 1000, 'unixepoch', 'localtime')";
+
+    // Room only creates triggers for FTS tables, so these are created on first open and in MIGRATION_6_7
+    private static void createDayCountTriggers(SupportSQLiteDatabase database) {
+        String newDay = LOCAL_DAY.replace("%s", "NEW.timestamp");
+        String oldDay = LOCAL_DAY.replace("%s", "OLD.timestamp");
+        String increment = "INSERT OR IGNORE INTO photo_day_counts (day, photoCount) VALUES (" + newDay + ", 0); " +
+                "UPDATE photo_day_counts SET photoCount = photoCount + 1 WHERE day = " + newDay + "; ";
+        String decrement = "UPDATE photo_day_counts SET photoCount = photoCount - 1 WHERE day = " + oldDay + "; " +
+                "DELETE FROM photo_day_counts WHERE day = " + oldDay + " AND photoCount <= 0; ";
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS photo_day_counts_after_insert AFTER INSERT ON photos " +
+                "BEGIN " + increment + "END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS photo_day_counts_after_delete AFTER DELETE ON photos " +
+                "BEGIN " + decrement + "END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS photo_day_counts_after_update AFTER UPDATE OF timestamp ON photos " +
+                "WHEN OLD.timestamp != NEW.timestamp BEGIN " + decrement + increment + "END");
+    }
+
+    // photo_locations spatial index over latitude/longitude (see PhotoLocations)
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            PhotoLocations.create(database);
+            PhotoLocations.fill(database);
+        }
+    };
+
+    // Last seen size/mtime of each photo's file, so PhotoSweeper can skip unchanged rows
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `photo_file_state` (`photoId` INTEGER NOT NULL, " +
+                    "`size` INTEGER NOT NULL, `modified` INTEGER NOT NULL, `missingSince` INTEGER, " +
+                    "`checkedAt` INTEGER NOT NULL, PRIMARY KEY(`photoId`), " +
+                    "FOREIGN KEY(`photoId`) REFERENCES `photos`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+        }
+    };
+
+    // Inline preview bytes written at capture time
+    static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE photos ADD COLUMN placeholder BLOB");
+        }
+    };
+
+    static final Migration[] ALL_MIGRATIONS = {MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6,
+            MIGRATION_6_7, MIGRATION_7_8, MIGRATION_8_9, MIGRATION_9_10};
+
+    // Triggers and tables Room does not create itself, for databases built from scratch
+    private static void createNonRoomObjects(SupportSQLiteDatabase database) {
+        createDayCountTriggers(database);
+        PhotoLocations.create(database);
+    }
 
     public static AppDatabase getDatabase(final Context context) {
         if (INSTANCE == null) {
             synchronized (AppDatabase.class) {
                 if (INSTANCE == null) {
                     Log.d(TAG, "Creating database instance");
-                    INSTANCE = Room.databaseBuilder(
+                    ExecutorService queryExecutor = Executors.newFixedThreadPool(READER_THREADS, namedThreads("db-read"));
+                    ExecutorService transactionExecutor = Executors.newSingleThreadExecutor(namedThreads("db-transaction"));
+                    INSTANCE = build(context, Room.databaseBuilder(
                         context.getApplicationContext(),
                         AppDatabase.class,
                         "sd_contextcam_database"
                     )
-                    .fallbackToDestructiveMigration() // Add this to handle schema changes by recreating the database
-                    .build();
+                    .setJournalMode(JournalMode.WRITE_AHEAD_LOGGING)
+                    .setQueryExecutor(queryExecutor)
+                    .setTransactionExecutor(transactionExecutor));
                     Log.d(TAG, "Database instance created successfully");
                 }
             }
         }
         return INSTANCE;
     }
-}
\ No newline at end of file
+
+    // A private in-memory database with the same callbacks, stats and pipelines, for tests
+    @VisibleForTesting
+    static AppDatabase createInMemory(Context context) {
+        return build(context, Room.inMemoryDatabaseBuilder(context.getApplicationContext(), AppDatabase.class));
+    }
+
+    private static AppDatabase build(Context context, Builder<AppDatabase> builder) {
+        QueryStats queryStats = new QueryStats();
+        AppDatabase instance = builder
+            // Inline, so each statement is seen on the thread (and timed call) that runs it
+            .setQueryCallback(queryStats::onQuery, Runnable::run)
+            .addMigrations(ALL_MIGRATIONS)
+            .addCallback(new Callback() {
+                @Override
+                public void onCreate(@NonNull SupportSQLiteDatabase db) {
+                    createNonRoomObjects(db);
+                }
+
+                @Override
+                public void onDestructiveMigration(@NonNull SupportSQLiteDatabase db) {
+                    createNonRoomObjects(db);
+                }
+            })
+            // Version 1 predates any migration path, so only it is still recreated from scratch
+            .fallbackToDestructiveMigrationFrom(1)
+            .build();
+        instance.queryStats = queryStats;
+        instance.deletePipeline = new DeletePipeline(instance, context.getApplicationContext().getFilesDir());
+        return instance;
+    }
+}
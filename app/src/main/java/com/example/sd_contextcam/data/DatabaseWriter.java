@@ -0,0 +1,273 @@
+package com.example.sd_contextcam.data;
+
+import android.util.Log;
+
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single serialized writer for the database. Every repository write is queued here and run
+ * on one thread, so writers never contend with each other for the SQLite write lock and
+ * WAL readers only ever see one writer.
+ *
+ * Writes that pile up while a transaction is running are coalesced into one group commit.
+ * If any write in a group fails, the group is rolled back and each write is re-run in its
+ * own transaction, so one bad write cannot take its neighbours down with it.
+ *
+ * A write that catches an exception from a nested transaction (e.g. a @Transaction DAO
+ * method) leaves its enclosing transaction marked failed, and SQLite then rolls it back on
+ * endTransaction without throwing. Every transaction here therefore records a sequence number
+ * in a temp table and deletes it again after the commit; a missing number fails the
+ * transaction with {@link RolledBackException}. A group of writes shares one such check.
+ */
+public class DatabaseWriter {
+    private static final String TAG = "DatabaseWriter";
+    private static final int MAX_BATCH_SIZE = 64;
+    private static final int STATS_LOG_INTERVAL = 100;
+
+    private static final String CREATE_COMMIT_TABLE =
+            "CREATE TEMP TABLE IF NOT EXISTS writer_commit (seq INTEGER PRIMARY KEY)";
+
+    private final AppDatabase db;
+    private final BlockingQueue<WriteTask<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+
+    // Contention metrics
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong failedBatchCount = new AtomicLong();
+    private final AtomicLong totalQueueWaitNanos = new AtomicLong();
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+    private final AtomicLong totalCommitNanos = new AtomicLong();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicInteger maxBatchSize = new AtomicInteger();
+    // Last transaction sequence number; writer thread only
+    private long commitSeq;
+    // Commit marker statements, compiled once the temp table exists; writer thread only
+    private SupportSQLiteStatement markCommit;
+    private SupportSQLiteStatement takeCommit;
+
+    /** A write returned normally but its transaction was rolled back, so none of it was kept. */
+    public static class RolledBackException extends IllegalStateException {
+        RolledBackException() {
+            super("Transaction was rolled back; a nested transaction failed and its exception was caught");
+        }
+    }
+
+    private static class WriteTask<T> {
+        final Callable<T> write;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final long enqueuedAt = System.nanoTime();
+        T result;
+
+        WriteTask(Callable<T> write) {
+            this.write = write;
+        }
+
+        void runInCurrentTransaction() throws Exception {
+            result = write.call();
+        }
+
+        void complete() {
+            future.complete(result);
+        }
+
+        void runAlone(DatabaseWriter writer) {
+            try {
+                future.complete(writer.runChecked(write));
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /** Point-in-time copy of the writer's contention metrics. */
+    public static class Stats {
+        public final long writes;
+        public final long batches;
+        public final long failedBatches;
+        public final double averageBatchSize;
+        public final int maxBatchSize;
+        public final int maxQueueDepth;
+        public final double averageQueueWaitMs;
+        public final double maxQueueWaitMs;
+        public final double averageCommitMs;
+
+        Stats(DatabaseWriter w) {
+            writes = w.writeCount.get();
+            batches = w.batchCount.get();
+            failedBatches = w.failedBatchCount.get();
+            averageBatchSize = batches == 0 ? 0 : (double) writes / batches;
+            maxBatchSize = w.maxBatchSize.get();
+            maxQueueDepth = w.maxQueueDepth.get();
+            averageQueueWaitMs = writes == 0 ? 0 : w.totalQueueWaitNanos.get() / 1e6 / writes;
+            maxQueueWaitMs = w.maxQueueWaitNanos.get() / 1e6;
+            averageCommitMs = batches == 0 ? 0 : w.totalCommitNanos.get() / 1e6 / batches;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "writes=%d batches=%d failedBatches=%d avgBatch=%.1f maxBatch=%d maxQueueDepth=%d " +
+                            "avgQueueWait=%.2fms maxQueueWait=%.2fms avgCommit=%.2fms",
+                    writes, batches, failedBatches, averageBatchSize, maxBatchSize, maxQueueDepth,
+                    averageQueueWaitMs, maxQueueWaitMs, averageCommitMs);
+        }
+    }
+
+    DatabaseWriter(AppDatabase db) {
+        this.db = db;
+        writerThread = new Thread(this::drainLoop, "db-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queues a write. The returned future completes once the write is committed.
+     *
+     * The write must be pure database work. It runs inside a transaction that may be rolled
+     * back, and if its group fails it is run a second time on its own, so callbacks, file I/O
+     * and other side effects belong after the future completes. Query stats recorded inside
+     * the write count each attempt.
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> write) {
+        WriteTask<T> task = new WriteTask<>(write);
+        if (Thread.currentThread() == writerThread) {
+            // Already inside a write; queueing would wait on ourselves
+            try {
+                task.runInCurrentTransaction();
+                task.complete();
+            } catch (Exception e) {
+                task.future.completeExceptionally(e);
+            }
+            return task.future;
+        }
+        queue.add(task);
+        maxQueueDepth.accumulateAndGet(queue.size(), Math::max);
+        return task.future;
+    }
+
+    /**
+     * Queues a write and blocks until it is committed. Must not be called on the main thread.
+     *
+     * @return The value returned by the write.
+     * @throws Exception The exception thrown by the write, if any.
+     */
+    public <T> T await(Callable<T> write) throws Exception {
+        try {
+            return submit(write).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(this);
+    }
+
+    private void drainLoop() {
+        List<WriteTask<?>> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Writer thread interrupted, stopping");
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+            runBatch(batch);
+            batch.clear();
+        }
+    }
+
+    private void runBatch(List<WriteTask<?>> batch) {
+        long start = System.nanoTime();
+        for (WriteTask<?> task : batch) {
+            long wait = start - task.enqueuedAt;
+            totalQueueWaitNanos.addAndGet(wait);
+            maxQueueWaitNanos.accumulateAndGet(wait, Math::max);
+        }
+
+        if (batch.size() == 1) {
+            batch.get(0).runAlone(this);
+        } else if (runGroupCommit(batch)) {
+            for (WriteTask<?> task : batch) {
+                task.complete();
+            }
+        } else {
+            failedBatchCount.incrementAndGet();
+            for (WriteTask<?> task : batch) {
+                task.runAlone(this);
+            }
+        }
+
+        totalCommitNanos.addAndGet(System.nanoTime() - start);
+        writeCount.addAndGet(batch.size());
+        maxBatchSize.accumulateAndGet(batch.size(), Math::max);
+        if (batchCount.incrementAndGet() % STATS_LOG_INTERVAL == 0) {
+            Log.d(TAG, "Writer stats: " + getStats());
+        }
+    }
+
+    // Returns false, with everything rolled back, if any write in the group threw or left the
+    // transaction marked failed
+    private boolean runGroupCommit(List<WriteTask<?>> batch) {
+        try {
+            runChecked(() -> {
+                for (WriteTask<?> task : batch) {
+                    task.runInCurrentTransaction();
+                }
+                return null;
+            });
+            return true;
+        } catch (Exception e) {
+            Log.w(TAG, "Group commit of " + batch.size() + " writes failed, retrying individually", e);
+            return false;
+        }
+    }
+
+    // runInTransaction, but throws RolledBackException if the commit silently became a rollback
+    private <T> T runChecked(Callable<T> body) throws Exception {
+        long seq = ++commitSeq;
+        prepareCommitMarker();
+        T result = db.runInTransaction(() -> {
+            T value = body.call();
+            markCommit.bindLong(1, seq);
+            markCommit.executeInsert();
+            return value;
+        });
+        // A write statement, so it runs on the primary connection, the only one that has the
+        // temp table; it autocommits, so no second transaction is needed
+        takeCommit.bindLong(1, seq);
+        if (takeCommit.executeUpdateDelete() != 1) {
+            throw new RolledBackException();
+        }
+        return result;
+    }
+
+    // Created outside any transaction, so a rolled-back write cannot take the table with it
+    private void prepareCommitMarker() {
+        if (markCommit != null) {
+            return;
+        }
+        SupportSQLiteDatabase sqlite = db.getOpenHelper().getWritableDatabase();
+        sqlite.execSQL(CREATE_COMMIT_TABLE);
+        markCommit = sqlite.compileStatement("INSERT INTO temp.writer_commit (seq) VALUES (?)");
+        takeCommit = sqlite.compileStatement("DELETE FROM temp.writer_commit WHERE seq = ?");
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.sd_contextcam.data;
+
+// One bar of the date histogram: a local day (yyyy-MM-dd) or month (yyyy-MM) and its photo count
+public class DateBucket {
+    public String period;
+    public int photoCount;
+
+    public String getPeriod() {
+        return period;
+    }
+
+    public int getPhotoCount() {
+        return photoCount;
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.sd_contextcam.data;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+
+// A half-open [fromMillis, toMillis) window over photos.timestamp, in device-local days
+public final class DateRange {
+    public static final DateRange ALL = new DateRange(Long.MIN_VALUE, Long.MAX_VALUE);
+
+    public final long fromMillis;
+    public final long toMillis;
+
+    public DateRange(long fromMillis, long toMillis) {
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+    }
+
+    public static DateRange forDay(LocalDate day) {
+        return new DateRange(startOf(day), startOf(day.plusDays(1)));
+    }
+
+    public static DateRange forMonth(YearMonth month) {
+        return new DateRange(startOf(month.atDay(1)), startOf(month.plusMonths(1).atDay(1)));
+    }
+
+    public boolean isAll() {
+        return fromMillis == Long.MIN_VALUE && toMillis == Long.MAX_VALUE;
+    }
+
+    private static long startOf(LocalDate day) {
+        return day.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
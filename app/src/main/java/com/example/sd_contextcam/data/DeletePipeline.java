@@ -0,0 +1,182 @@
+package com.example.sd_contextcam.data;
+
+import android.util.Log;
+
+import com.example.sd_contextcam.security.EncryptionUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+/**
+ * Bulk deletes that never block the caller. Rows are removed in chunked transactions on the
+ * database writer, so a tag with thousands of photos never holds the write lock for long and
+ * other writes interleave between chunks. Files are only unlinked after the rows that reference
+ * them are committed, on a separate I/O thread, so a crash can leave an orphaned file (which
+ * a later sweep can collect) but never a row pointing at a missing file.
+ *
+ * Only files inside the app's own files directory are unlinked. Rows for photos that live in
+ * shared storage (e.g. imported during onboarding) are removed but the originals are kept.
+ */
+public class DeletePipeline {
+    private static final String TAG = "DeletePipeline";
+    // Keeps each IN (...) list well under SQLite's 999 bound-variable limit
+    private static final int CHUNK_SIZE = 500;
+
+    public interface Listener {
+        // Rows deleted so far out of total; called on a background thread after each chunk commits
+        void onProgress(int deleted, int total);
+
+        // Called on a background thread once every row is gone and every file unlink has finished
+        void onComplete(int deleted, int filesRemoved);
+    }
+
+    private final AppDatabase db;
+    private final File ownedDir;
+    // Serializes pipelines so two bulk deletes never interleave their chunks
+    private final ExecutorService deleteExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "db-delete");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService fileExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "file-unlink");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    DeletePipeline(AppDatabase db, File ownedDir) {
+        this.db = db;
+        this.ownedDir = ownedDir;
+    }
+
+    /**
+     * Deletes the photos, their tag links and their app-owned files (plain and VAULT_).
+     * Returns immediately; the future completes with the number of rows deleted.
+     */
+    public CompletableFuture<Integer> deletePhotos(List<Integer> photoIds, Listener listener) {
+        List<Integer> ids = new ArrayList<>(photoIds);
+        return CompletableFuture.supplyAsync(() -> {
+            int total = ids.size();
+            int deleted = 0;
+            List<CompletableFuture<Boolean>> unlinks = new ArrayList<>();
+            for (int start = 0; start < total; start += CHUNK_SIZE) {
+                List<Integer> chunk = ids.subList(start, Math.min(start + CHUNK_SIZE, total));
+                try {
+                    List<PhotoIdPath> removed = write("DeletePipeline.photoChunk", () -> {
+                        List<PhotoIdPath> paths = db.photoDao().getPhotoPathsByIds(chunk);
+                        db.photoTagJoinDao().deleteJoinsForPhotos(chunk);
+                        db.photoDao().deletePhotosByIds(chunk);
+                        return paths;
+                    }, List::size);
+                    deleted += removed.size();
+                    for (PhotoIdPath row : removed) {
+                        unlinks.add(CompletableFuture.supplyAsync(() -> unlink(row.filePath), fileExecutor));
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Error deleting photo chunk starting at " + start, e);
+                }
+                if (listener != null) {
+                    listener.onProgress(Math.min(start + chunk.size(), total), total);
+                }
+            }
+            finish(listener, deleted, unlinks);
+            return deleted;
+        }, deleteExecutor);
+    }
+
+    /**
+     * Deletes a tag. Its photo links are removed in chunks first so the final row delete has
+     * nothing left to cascade; its photos are kept. Child tags move up to the tag's parent.
+     * Progress counts photo links. The future completes with the number of links removed.
+     */
+    public CompletableFuture<Integer> deleteTag(int tagId, Listener listener) {
+        return CompletableFuture.supplyAsync(() -> {
+            int removed = 0;
+            try {
+                int total = read("DeletePipeline.countTagLinks", () -> db.photoTagJoinDao().getPhotoCountForTag(tagId));
+                int chunkRemoved;
+                do {
+                    chunkRemoved = write("DeletePipeline.tagLinkChunk",
+                            () -> db.photoTagJoinDao().deletePhotoJoinsForTagChunk(tagId, CHUNK_SIZE), Integer::intValue);
+                    removed += chunkRemoved;
+                    if (listener != null) {
+                        listener.onProgress(removed, Math.max(total, removed));
+                    }
+                } while (chunkRemoved == CHUNK_SIZE);
+
+                write("DeletePipeline.tagRow", () -> {
+                    Tag tag = db.tagDao().getTagById(tagId);
+                    if (tag == null) {
+                        return 0;
+                    }
+                    int reparented = db.tagDao().reparentChildren(tagId, tag.parentId);
+                    return reparented + db.tagDao().deleteTagById(tagId);
+                }, Integer::intValue);
+            } catch (Exception e) {
+                Log.e(TAG, "Error deleting tag: " + tagId, e);
+            }
+            if (listener != null) {
+                listener.onComplete(removed, 0);
+            }
+            return removed;
+        }, deleteExecutor);
+    }
+
+    private void finish(Listener listener, int deleted, List<CompletableFuture<Boolean>> unlinks) {
+        CompletableFuture.allOf(unlinks.toArray(new CompletableFuture[0])).join();
+        int filesRemoved = 0;
+        for (CompletableFuture<Boolean> unlink : unlinks) {
+            if (unlink.join()) {
+                filesRemoved++;
+            }
+        }
+        Log.d(TAG, "Deleted " + deleted + " photos, removed " + filesRemoved + " files");
+        if (listener != null) {
+            listener.onComplete(deleted, filesRemoved);
+        }
+    }
+
+    private boolean unlink(String path) {
+        if (path == null) {
+            return false;
+        }
+        File file = new File(path);
+        if (!isInside(ownedDir, file)) {
+            return false;
+        }
+        if (!file.delete() && file.exists()) {
+            Log.w(TAG, "Could not delete file: " + path);
+            return false;
+        }
+        // Vault photos have an encrypted thumbnail alongside; a no-op for everything else
+        EncryptionUtil.getThumbnailFile(ownedDir, path).delete();
+        return true;
+    }
+
+    // True if file resolves to a path under dir; symlinks and ".." cannot escape it
+    static boolean isInside(File dir, File file) {
+        try {
+            String owned = dir.getCanonicalPath() + File.separator;
+            return file.getCanonicalPath().startsWith(owned);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not resolve path: " + file, e);
+            return false;
+        }
+    }
+
+    private <T> T read(String method, Callable<T> body) throws Exception {
+        return db.getQueryStats().time(method, body);
+    }
+
+    private <T> T write(String method, Callable<T> body, ToIntFunction<? super T> rows) throws Exception {
+        return db.getWriter().await(() -> db.getQueryStats().time(method, body, rows));
+    }
+}
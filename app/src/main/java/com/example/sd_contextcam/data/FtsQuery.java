@@ -0,0 +1,42 @@
+package com.example.sd_contextcam.data;
+
+import java.util.Locale;
+
+/**
+ * Turns free text typed by the user into an FTS4 MATCH expression that prefix-matches
+ * every word, e.g. "kyoto tem" becomes "kyoto* tem*". Words are split wherever the unicode61
+ * tokenizer splits them, so "wi-fi" becomes "wi* fi*", and FTS operators and quotes are
+ * dropped so user input can never produce a malformed query.
+ */
+public final class FtsQuery {
+
+    private FtsQuery() {
+    }
+
+    /**
+     * @param input  Raw search text.
+     * @param column Restricts every term to this FTS column, or null to match any column.
+     * @return The MATCH expression, or null if the input holds no searchable words.
+     */
+    public static String toPrefixMatch(String input, String column) {
+        if (input == null) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        for (String word : input.split("[^\\p{L}\\p{N}]+")) {
+            String term = word.toLowerCase(Locale.ROOT);
+            // Lower-casing also keeps AND/OR/NOT/NEAR from being read as operators
+            if (term.isEmpty()) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            if (column != null) {
+                match.append(column).append(':');
+            }
+            match.append(term).append('*');
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+}
@@ -2,10 +2,19 @@ package com.example.sd_contextcam.data;
 
 import androidx.room.ColumnInfo; // <-- ADD THIS IMPORT
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 import androidx.room.Ignore;
 
-@Entity(tableName = "photos")
+@Entity(
+    tableName = "photos",
+    indices = {
+        // Backs the (timestamp, id) keyset used by the paged gallery feed and any
+        // timestamp range or ordering, so no separate timestamp-only index is needed
+        @Index(value = {"timestamp", "id"}),
+        @Index(value = "filePath", unique = true)
+    }
+)
 public class Photo {
     @PrimaryKey(autoGenerate = true)
     public int id;
@@ -16,6 +25,8 @@ public class Photo {
     public Double longitude = null;
     public String wifiNetwork = "";
     public String calendarEvent = "";
+    // A few hundred bytes of preview colors shown until the thumbnail loads (see Placeholder)
+    public byte[] placeholder = null;
 
     // --- ADD THIS FIELD ---
     @ColumnInfo(name = "is_encrypted") // Optional: Defines the column name
@@ -91,6 +102,14 @@ public class Photo {
         this.calendarEvent = calendarEvent;
     }
 
+    public byte[] getPlaceholder() {
+        return placeholder;
+    }
+
+    public void setPlaceholder(byte[] placeholder) {
+        this.placeholder = placeholder;
+    }
+
     // --- ADD GETTER AND SETTER FOR ENCRYPTED ---
     public boolean isEncrypted() {
         return encrypted;
@@ -5,8 +5,12 @@ import android.util.Log;
 import androidx.room.Dao;
 import androidx.room.Delete;
 import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.RawQuery;
+import androidx.room.Transaction;
 import androidx.room.Update;
+import androidx.sqlite.db.SupportSQLiteQuery;
 
 import java.util.List;
 
@@ -15,21 +19,180 @@ public interface PhotoDao {
     @Query("SELECT * FROM photos")
     List<Photo> getAllPhotos();
 
+    @Query("SELECT id, filePath, timestamp, is_encrypted, placeholder FROM photos ORDER BY timestamp DESC, id DESC")
+    List<PhotoGridItem> getAllPhotoGridItems();
+
+    @Query("SELECT p.* FROM photos p " +
+            "INNER JOIN photo_tag_join j ON j.photoId = p.id " +
+            "WHERE j.tagId = :tagId ORDER BY p.timestamp DESC, p.id DESC")
+    List<Photo> getPhotosWithTag(int tagId);
+
+    @Query("SELECT p.id, p.filePath, p.timestamp, p.is_encrypted, p.placeholder FROM photos p " +
+            "INNER JOIN photo_tag_join j ON j.photoId = p.id " +
+            "WHERE j.tagId = :tagId ORDER BY p.timestamp DESC, p.id DESC")
+    List<PhotoGridItem> getPhotoGridItemsWithTag(int tagId);
+
+    // Keyset pages: rows strictly older than (beforeTimestamp, beforeId) and no older than
+    // fromTimestamp, newest first. Both bounds are one range on the (timestamp, id) index.
+    @Query("SELECT id, filePath, timestamp, is_encrypted, placeholder FROM photos " +
+            "WHERE timestamp >= :fromTimestamp AND (timestamp, id) < (:beforeTimestamp, :beforeId) " +
+            "ORDER BY timestamp DESC, id DESC LIMIT :limit")
+    List<PhotoGridItem> getPhotoGridPageBefore(long fromTimestamp, long beforeTimestamp, int beforeId, int limit);
+
+    // Prepend pages: rows strictly newer than (afterTimestamp, afterId) but still older than
+    // (beforeTimestamp, beforeId), oldest first, so the rows nearest the key come back first
+    @Query("SELECT id, filePath, timestamp, is_encrypted, placeholder FROM photos " +
+            "WHERE timestamp >= :fromTimestamp AND (timestamp, id) > (:afterTimestamp, :afterId) " +
+            "AND (timestamp, id) < (:beforeTimestamp, :beforeId) " +
+            "ORDER BY timestamp ASC, id ASC LIMIT :limit")
+    List<PhotoGridItem> getPhotoGridPageAfter(long fromTimestamp, long afterTimestamp, int afterId,
+                                              long beforeTimestamp, int beforeId, int limit);
+
+    // Photos carrying tagId or any of its descendant tags, each listed once
+    @Query("WITH RECURSIVE subtree(id) AS (" +
+            "SELECT :tagId UNION SELECT t.id FROM tags t JOIN subtree s ON t.parentId = s.id) " +
+            "SELECT p.id, p.filePath, p.timestamp, p.is_encrypted, p.placeholder FROM photos p " +
+            "WHERE p.id IN (SELECT j.photoId FROM photo_tag_join j WHERE j.tagId IN subtree) " +
+            "ORDER BY p.timestamp DESC, p.id DESC")
+    List<PhotoGridItem> getPhotoGridItemsInTagSubtree(int tagId);
+
+    @Query("WITH RECURSIVE subtree(id) AS (" +
+            "SELECT :tagId UNION SELECT t.id FROM tags t JOIN subtree s ON t.parentId = s.id) " +
+            "SELECT p.id, p.filePath, p.timestamp, p.is_encrypted, p.placeholder FROM photos p " +
+            "WHERE p.id IN (SELECT j.photoId FROM photo_tag_join j WHERE j.tagId IN subtree) " +
+            "AND p.timestamp >= :fromTimestamp AND (p.timestamp, p.id) < (:beforeTimestamp, :beforeId) " +
+            "ORDER BY p.timestamp DESC, p.id DESC LIMIT :limit")
+    List<PhotoGridItem> getPhotoGridPageInTagSubtreeBefore(int tagId, long fromTimestamp, long beforeTimestamp,
+                                                           int beforeId, int limit);
+
+    @Query("WITH RECURSIVE subtree(id) AS (" +
+            "SELECT :tagId UNION SELECT t.id FROM tags t JOIN subtree s ON t.parentId = s.id) " +
+            "SELECT p.id, p.filePath, p.timestamp, p.is_encrypted, p.placeholder FROM photos p " +
+            "WHERE p.id IN (SELECT j.photoId FROM photo_tag_join j WHERE j.tagId IN subtree) " +
+            "AND p.timestamp >= :fromTimestamp AND (p.timestamp, p.id) > (:afterTimestamp, :afterId) " +
+            "AND (p.timestamp, p.id) < (:beforeTimestamp, :beforeId) " +
+            "ORDER BY p.timestamp ASC, p.id ASC LIMIT :limit")
+    List<PhotoGridItem> getPhotoGridPageInTagSubtreeAfter(int tagId, long fromTimestamp, long afterTimestamp,
+                                                          int afterId, long beforeTimestamp, int beforeId, int limit);
+
+    // Date histograms. The whole-library ones read the trigger-maintained photo_day_counts table;
+    // the tag ones group the tag subtree's photos on the fly. Empty periods are never returned.
+    @Query("SELECT substr(day, 1, 7) AS period, SUM(photoCount) AS photoCount FROM photo_day_counts " +
+            "GROUP BY period ORDER BY period DESC")
+    List<DateBucket> getMonthHistogram();
+
+    // month is yyyy-MM
+    @Query("SELECT day AS period, photoCount FROM photo_day_counts " +
+            "WHERE day BETWEEN :month || '-01' AND :month || '-31' ORDER BY day DESC")
+    List<DateBucket> getDayHistogram(String month);
+
+    @Query("WITH RECURSIVE subtree(id) AS (" +
+            "SELECT :tagId UNION SELECT t.id FROM tags t JOIN subtree s ON t.parentId = s.id) " +
+            "SELECT strftime('%Y-%m', p.timestamp / 1000, 'unixepoch', 'localtime') AS period, COUNT(*) AS photoCount " +
+            "FROM photos p WHERE p.id IN (SELECT j.photoId FROM photo_tag_join j WHERE j.tagId IN subtree) " +
+            "GROUP BY period ORDER BY period DESC")
+    List<DateBucket> getMonthHistogramInTagSubtree(int tagId);
+
+    @Query("WITH RECURSIVE subtree(id) AS (" +
+            "SELECT :tagId UNION SELECT t.id FROM tags t JOIN subtree s ON t.parentId = s.id) " +
+            "SELECT date(p.timestamp / 1000, 'unixepoch', 'localtime') AS period, COUNT(*) AS photoCount " +
+            "FROM photos p WHERE p.id IN (SELECT j.photoId FROM photo_tag_join j WHERE j.tagId IN subtree) " +
+            "AND p.timestamp >= :fromTimestamp AND p.timestamp < :toTimestamp " +
+            "GROUP BY period ORDER BY period DESC")
+    List<DateBucket> getDayHistogramInTagSubtree(int tagId, long fromTimestamp, long toTimestamp);
+
+    // Grid rows for queries built at runtime, e.g. compiled tag filters (see TagFilterQuery)
+    @RawQuery
+    List<PhotoGridItem> getPhotoGridItemsRaw(SupportSQLiteQuery query);
+
+    // Date histograms built at runtime, e.g. for a compiled tag filter
+    @RawQuery
+    List<DateBucket> getDateBucketsRaw(SupportSQLiteQuery query);
+
+    // Geotagged photos inside a latitude/longitude box, newest first, via the photo_locations spatial index
+    default List<PhotoGridItem> getPhotoGridItemsInBox(double minLat, double maxLat,
+                                                       double minLon, double maxLon, int limit) {
+        return getPhotoGridItemsRaw(PhotoLocations.inBox(minLat, maxLat, minLon, maxLon, limit));
+    }
+
+    // The k geotagged photos closest to (lat, lon), nearest first. Searches a small circle and
+    // doubles it until k photos are inside; anything outside the circle is farther than all of them.
+    default List<PhotoGridItem> getNearestPhotoGridItems(double lat, double lon, int k) {
+        double radius = PhotoLocations.INITIAL_RADIUS_DEGREES;
+        while (true) {
+            List<PhotoGridItem> rows = getPhotoGridItemsRaw(PhotoLocations.nearest(lat, lon, radius, k));
+            if (rows.size() >= k || radius >= 360) {
+                return rows;
+            }
+            radius *= 2;
+        }
+    }
+
+    // Ranked full-text search: photos under a matching tag name first, then calendar event
+    // matches, then Wi-Fi network matches; newest first within each rank. Each *Match
+    // argument is an FTS4 MATCH expression (see FtsQuery).
+    @Query("SELECT p.id, p.filePath, p.timestamp, p.is_encrypted, p.placeholder FROM photos p JOIN (" +
+            "SELECT j.photoId AS photoId, 0 AS rank FROM photo_tag_join j " +
+            "WHERE j.tagId IN (SELECT docid FROM tags_fts WHERE tags_fts MATCH :tagMatch) " +
+            "UNION ALL SELECT docid AS photoId, 1 AS rank FROM photos_fts WHERE photos_fts MATCH :calendarMatch " +
+            "UNION ALL SELECT docid AS photoId, 2 AS rank FROM photos_fts WHERE photos_fts MATCH :wifiMatch" +
+            ") hits ON hits.photoId = p.id " +
+            "GROUP BY p.id ORDER BY MIN(hits.rank), p.timestamp DESC, p.id DESC LIMIT :limit")
+    List<PhotoGridItem> searchPhotoGridItems(String tagMatch, String calendarMatch, String wifiMatch, int limit);
+
     @Query("SELECT * FROM photos WHERE id = :id LIMIT 1")
     Photo getPhotoById(int id);
 
     @Query("SELECT * FROM photos WHERE filePath = :filePath LIMIT 1")
     Photo getPhotoByFilePath(String filePath);
 
+    // Resolves many paths in one query; callers must keep the list under SQLite's variable limit
+    @Query("SELECT id, filePath FROM photos WHERE filePath IN (:filePaths)")
+    List<PhotoIdPath> getPhotoIdsByFilePaths(List<String> filePaths);
+
     @Insert
     long insertPhoto(Photo photo);
 
+    @Insert
+    List<Long> insertPhotos(List<Photo> photos);
+
+    // filePath is unique; rows for paths already present come back as -1 and are left alone
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long insertPhotoIfAbsent(Photo photo);
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    List<Long> insertPhotosIfAbsent(List<Photo> photos);
+
+    @Query("SELECT id FROM photos WHERE filePath = :filePath")
+    Integer getPhotoIdByFilePath(String filePath);
+
+    // Inserts photo, or overwrites the existing row for its filePath; returns the row id either way.
+    // Done as insert-or-ignore plus update because minSdk 29 ships SQLite 3.22, which predates
+    // INSERT ... ON CONFLICT DO UPDATE.
+    @Transaction
+    default long upsertPhotoByFilePath(Photo photo) {
+        long id = insertPhotoIfAbsent(photo);
+        if (id != -1) {
+            return id;
+        }
+        photo.setId(getPhotoIdByFilePath(photo.getFilePath()));
+        updatePhoto(photo);
+        return photo.getId();
+    }
+
     @Update
-    void updatePhoto(Photo photo);
+    int updatePhoto(Photo photo);
 
     @Delete
     void deletePhoto(Photo photo);
 
+    // Used by DeletePipeline; callers keep ids under SQLite's variable limit
+    @Query("SELECT id, filePath FROM photos WHERE id IN (:ids)")
+    List<PhotoIdPath> getPhotoPathsByIds(List<Integer> ids);
+
+    @Query("DELETE FROM photos WHERE id IN (:ids)")
+    int deletePhotosByIds(List<Integer> ids);
+
     @Query("DELETE FROM photos")
     void deleteAllPhotos();
 }
\ No newline at end of file
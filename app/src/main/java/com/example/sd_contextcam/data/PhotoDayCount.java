@@ -0,0 +1,16 @@
+package com.example.sd_contextcam.data;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+// Photos per local day, kept current by triggers on photos (see AppDatabase.createDayCountTriggers)
+// so the date picker's histogram never has to scan the photos table
+@Entity(tableName = "photo_day_counts")
+public class PhotoDayCount {
+    @PrimaryKey
+    @NonNull
+    public String day = "";
+
+    public int photoCount;
+}
@@ -0,0 +1,27 @@
+package com.example.sd_contextcam.data;
+
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.PrimaryKey;
+
+// What PhotoSweeper last saw on disk for a photo row. Kept out of photos so sweeping never
+// rewrites photo rows (and with them the FTS, day-count and location triggers).
+@Entity(
+    tableName = "photo_file_state",
+    foreignKeys = @ForeignKey(
+        entity = Photo.class,
+        parentColumns = "id",
+        childColumns = "photoId",
+        onDelete = ForeignKey.CASCADE
+    )
+)
+public class PhotoFileState {
+    @PrimaryKey
+    public int photoId;
+
+    public long size;
+    public long modified;
+    // When the file was first found missing, or null while it exists
+    public Long missingSince;
+    public long checkedAt;
+}
@@ -0,0 +1,33 @@
+package com.example.sd_contextcam.data;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface PhotoFileStateDao {
+    // Keyset slice of photos after afterId with their recorded state
+    @Query("SELECT p.id AS photoId, p.filePath, " +
+            "s.size, s.modified, s.missingSince FROM photos p " +
+            "LEFT JOIN photo_file_state s ON s.photoId = p.id " +
+            "WHERE p.id > :afterId ORDER BY p.id LIMIT :limit")
+    List<PhotoSweepRow> getSweepSlice(int afterId, int limit);
+
+    // Swept photos whose path lies in [fromPath, toPath), e.g. everything under one directory;
+    // a range on the unique filePath index
+    @Query("SELECT p.id AS photoId, p.filePath, " +
+            "s.size, s.modified, s.missingSince FROM photos p " +
+            "JOIN photo_file_state s ON s.photoId = p.id " +
+            "WHERE p.filePath >= :fromPath AND p.filePath < :toPath")
+    List<PhotoSweepRow> getSweptInPathRange(String fromPath, String toPath);
+
+    // Which of these paths already have a photo row; backed by the unique filePath index
+    @Query("SELECT filePath FROM photos WHERE filePath IN (:filePaths)")
+    List<String> getTrackedPaths(List<String> filePaths);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void saveStates(List<PhotoFileState> states);
+}
@@ -0,0 +1,20 @@
+package com.example.sd_contextcam.data;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+import androidx.room.FtsOptions;
+import androidx.room.PrimaryKey;
+
+// Full-text index over the photo context fields. Room keeps it in sync with the photos
+// table through triggers; docid equals the photo id.
+@Fts4(contentEntity = Photo.class, tokenizer = FtsOptions.TOKENIZER_UNICODE61)
+@Entity(tableName = "photos_fts")
+public class PhotoFts {
+    @PrimaryKey
+    @ColumnInfo(name = "rowid")
+    public int rowid;
+
+    public String calendarEvent;
+    public String wifiNetwork;
+}
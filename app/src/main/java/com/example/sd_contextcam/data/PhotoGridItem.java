@@ -0,0 +1,36 @@
+package com.example.sd_contextcam.data;
+
+import androidx.room.ColumnInfo;
+
+// Slim projection of a photo row carrying only the columns the gallery grid needs
+public class PhotoGridItem {
+    public int id;
+    public String filePath;
+    public long timestamp;
+
+    @ColumnInfo(name = "is_encrypted")
+    public boolean encrypted;
+
+    // Tiny preview made at capture time (see Placeholder); null for vault and imported photos
+    public byte[] placeholder;
+
+    public int getId() {
+        return id;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public boolean isEncrypted() {
+        return encrypted;
+    }
+
+    public byte[] getPlaceholder() {
+        return placeholder;
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.sd_contextcam.data;
+
+// Lightweight id/path projection used when resolving many file paths at once
+public class PhotoIdPath {
+    public int id;
+    public String filePath;
+
+    public int getId() {
+        return id;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.sd_contextcam.data;
+
+import android.database.SQLException;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.sqlite.db.SimpleSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteQuery;
+
+/**
+ * Spatial index over photos.latitude/longitude. photo_locations is an R*Tree holding one
+ * degenerate box (minLat = maxLat, minLon = maxLon) per geotagged photo, kept in sync by
+ * triggers on photos. SQLite builds without the rtree module get an ordinary table with the
+ * same columns and a (minLat, minLon) index instead, so the queries below work on either.
+ * Room does not know about the table, so it is queried through {@link PhotoDao#getPhotoGridItemsRaw}.
+ */
+final class PhotoLocations {
+    private static final String TAG = "PhotoLocations";
+
+    // About 1 km of latitude; the nearest-photo search starts here and doubles outwards
+    static final double INITIAL_RADIUS_DEGREES = 0.01;
+    // Keeps longitude scaling finite near the poles
+    private static final double MIN_LONGITUDE_SCALE = 0.01;
+
+    private static final String GRID_COLUMNS = "SELECT p.id, p.filePath, p.timestamp, p.is_encrypted, p.placeholder " +
+            "FROM photo_locations l JOIN photos p ON p.id = l.id ";
+
+    // R*Tree boxes are stored as 32-bit floats rounded outwards, so candidates are re-checked
+    // against the exact REAL columns on photos
+    private static final String IN_BOX = "WHERE l.minLat <= ?2 AND l.maxLat >= ?1 AND l.minLon <= ?4 AND l.maxLon >= ?3 " +
+            "AND p.latitude BETWEEN ?1 AND ?2 AND p.longitude BETWEEN ?3 AND ?4 ";
+
+    private static final String BOX_SQL = GRID_COLUMNS + IN_BOX +
+            "ORDER BY p.timestamp DESC, p.id DESC LIMIT ?5";
+
+    // Squared equirectangular distance in degrees of latitude; ?7 is cos²(latitude)
+    private static final String DISTANCE = "((p.latitude - ?5) * (p.latitude - ?5) + " +
+            "(p.longitude - ?6) * (p.longitude - ?6) * ?7)";
+
+    private static final String NEAREST_SQL = GRID_COLUMNS + IN_BOX +
+            "AND " + DISTANCE + " <= ?8 ORDER BY " + DISTANCE + ", p.id LIMIT ?9";
+
+    private PhotoLocations() {
+    }
+
+    // Creates the index table and its sync triggers; safe to call on an already-indexed database
+    static void create(SupportSQLiteDatabase database) {
+        try {
+            database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS photo_locations USING rtree(" +
+                    "id, minLat, maxLat, minLon, maxLon)");
+        } catch (SQLException e) {
+            Log.w(TAG, "rtree module unavailable, using an indexed table for photo locations", e);
+            createIndexedTable(database);
+        }
+
+        String insertNew = "INSERT INTO photo_locations (id, minLat, maxLat, minLon, maxLon) " +
+                "SELECT NEW.id, NEW.latitude, NEW.latitude, NEW.longitude, NEW.longitude " +
+                "WHERE NEW.latitude IS NOT NULL AND NEW.longitude IS NOT NULL; ";
+        String deleteOld = "DELETE FROM photo_locations WHERE id = OLD.id; ";
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS photo_locations_after_insert AFTER INSERT ON photos " +
+                "BEGIN " + insertNew + "END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS photo_locations_after_update " +
+                "AFTER UPDATE OF latitude, longitude ON photos BEGIN " + deleteOld + insertNew + "END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS photo_locations_after_delete AFTER DELETE ON photos " +
+                "BEGIN " + deleteOld + "END");
+    }
+
+    // The fallback for builds without rtree; the tests also use it to cover that path
+    @VisibleForTesting
+    static void createIndexedTable(SupportSQLiteDatabase database) {
+        database.execSQL("CREATE TABLE IF NOT EXISTS photo_locations (id INTEGER PRIMARY KEY, " +
+                "minLat REAL NOT NULL, maxLat REAL NOT NULL, minLon REAL NOT NULL, maxLon REAL NOT NULL)");
+        database.execSQL("CREATE INDEX IF NOT EXISTS photo_locations_minLat_minLon " +
+                "ON photo_locations (minLat, minLon)");
+    }
+
+    // Indexes photos that were geotagged before the table existed
+    static void fill(SupportSQLiteDatabase database) {
+        database.execSQL("INSERT INTO photo_locations (id, minLat, maxLat, minLon, maxLon) " +
+                "SELECT id, latitude, latitude, longitude, longitude FROM photos " +
+                "WHERE latitude IS NOT NULL AND longitude IS NOT NULL");
+    }
+
+    // Photos inside the box, newest first. The box does not wrap across the antimeridian.
+    static SupportSQLiteQuery inBox(double minLat, double maxLat, double minLon, double maxLon, int limit) {
+        return new SimpleSQLiteQuery(BOX_SQL, new Object[]{minLat, maxLat, minLon, maxLon, limit});
+    }
+
+    // Up to limit photos within radius degrees of (lat, lon), nearest first
+    static SupportSQLiteQuery nearest(double lat, double lon, double radius, int limit) {
+        double scale = Math.max(Math.cos(Math.toRadians(lat)), MIN_LONGITUDE_SCALE);
+        double lonRadius = radius / scale;
+        return new SimpleSQLiteQuery(NEAREST_SQL, new Object[]{
+                Math.max(lat - radius, -90.0), Math.min(lat + radius, 90.0),
+                Math.max(lon - lonRadius, -180.0), Math.min(lon + lonRadius, 180.0),
+                lat, lon, scale * scale, radius * radius, limit});
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.sd_contextcam.data;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.paging.ListenableFuturePagingSource;
+import androidx.paging.PagingState;
+import androidx.room.InvalidationTracker;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import kotlin.Unit;
+
+/**
+ * Pages gallery rows newest first using a (timestamp, id) keyset instead of OFFSET, so every
+ * page costs the same index range scan no matter how deep the user has scrolled.
+ * A tag page covers the tag's whole subtree, so Travel also lists photos tagged Travel/Japan.
+ * A source can instead page over a boolean {@link TagFilter}, compiled to a single query.
+ * Either kind can be narrowed to a {@link DateRange}, which just tightens the same index range.
+ *
+ * The source invalidates itself when a table its query reads changes. The refresh that follows
+ * starts just above the rows the user was looking at rather than at the top, and pages above
+ * that point are prepended as the user scrolls back up, so writes do not lose the position.
+ * A source replaced because the user picked a different tag, filter or range is invalidated with
+ * {@link #invalidateForNewQuery}, and the new list then starts from the top.
+ */
+public class PhotoPagingSource extends ListenableFuturePagingSource<PhotoPagingSource.Key, PhotoGridItem> {
+    private static final String TAG = "PhotoPagingSource";
+
+    // Pass as tagId to page over every photo
+    public static final int ALL_PHOTOS = -1;
+
+    // Position in the (timestamp DESC, id DESC) ordering; a page holds rows strictly after it
+    public static class Key {
+        public final long timestamp;
+        public final int id;
+
+        public Key(long timestamp, int id) {
+            this.timestamp = timestamp;
+            this.id = id;
+        }
+
+        static final Key FIRST = new Key(Long.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    private final AppDatabase db;
+    private final PhotoDao photoDao;
+    private final int tagId;
+    @Nullable
+    private final TagFilter filter;
+    private final DateRange dateRange;
+    private final InvalidationTracker.Observer observer;
+    // Set when the replacement source pages a different query, so the old position is meaningless
+    private volatile boolean queryChanged;
+
+    public PhotoPagingSource(AppDatabase db, int tagId, @NonNull DateRange dateRange) {
+        this(db, tagId, null, dateRange);
+    }
+
+    public PhotoPagingSource(AppDatabase db, @NonNull TagFilter filter, @NonNull DateRange dateRange) {
+        this(db, ALL_PHOTOS, filter, dateRange);
+    }
+
+    private PhotoPagingSource(AppDatabase db, int tagId, @Nullable TagFilter filter, DateRange dateRange) {
+        this.db = db;
+        this.photoDao = db.photoDao();
+        this.tagId = tagId;
+        this.filter = filter;
+        this.dateRange = dateRange;
+        // The all-photos query only reads photos; tag and filter queries also walk joins and tags
+        String[] tables = (filter == null && tagId == ALL_PHOTOS)
+                ? new String[]{"photos"}
+                : new String[]{"photos", "photo_tag_join", "tags"};
+        this.observer = new InvalidationTracker.Observer(tables) {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                invalidate();
+            }
+        };
+        db.getInvalidationTracker().addObserver(observer);
+        registerInvalidatedCallback(() -> {
+            db.getInvalidationTracker().removeObserver(observer);
+            return Unit.INSTANCE;
+        });
+    }
+
+    @NonNull
+    @Override
+    public ListenableFuture<LoadResult<Key, PhotoGridItem>> loadFuture(@NonNull LoadParams<Key> params) {
+        boolean prepend = params instanceof LoadParams.Prepend;
+        boolean refresh = params instanceof LoadParams.Refresh;
+        // A key from before a range change may lie above the range; start at its top instead
+        boolean fromSavedKey = params.getKey() != null && isBelowTop(params.getKey());
+        Key key = fromSavedKey ? params.getKey() : firstKey();
+        int limit = params.getLoadSize();
+        ListenableFutureTask<LoadResult<Key, PhotoGridItem>> task = ListenableFutureTask.create(() -> {
+            try {
+                List<PhotoGridItem> rows = db.getQueryStats().time(statsName(), () ->
+                        prepend ? loadNewer(key, limit) : loadOlder(key, limit));
+
+                Key prevKey = null;
+                Key nextKey = null;
+                if (prepend) {
+                    // Fetched oldest first; flip into display order
+                    rows = new ArrayList<>(rows);
+                    Collections.reverse(rows);
+                    if (rows.size() == limit) {
+                        prevKey = keyOf(rows.get(0));
+                    }
+                } else {
+                    if (rows.size() == limit) {
+                        nextKey = keyOf(rows.get(rows.size() - 1));
+                    }
+                    // A refresh from a saved position may have newer rows above it
+                    if (refresh && fromSavedKey) {
+                        prevKey = rows.isEmpty() ? key : keyOf(rows.get(0));
+                    }
+                }
+                return new LoadResult.Page<>(rows, prevKey, nextKey,
+                        LoadResult.Page.COUNT_UNDEFINED, LoadResult.Page.COUNT_UNDEFINED);
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading photo page for " + (filter != null ? "filter: " + filter : "tag: " + tagId), e);
+                return new LoadResult.Error<>(e);
+            }
+        });
+        db.getQueryExecutor().execute(task);
+        return task;
+    }
+
+    // Rows strictly after key in display order (older), newest first
+    private List<PhotoGridItem> loadOlder(Key key, int limit) {
+        long from = dateRange.fromMillis;
+        if (filter != null) {
+            return photoDao.getPhotoGridItemsRaw(TagFilterQuery.pageBefore(filter, from, key.timestamp, key.id, limit));
+        } else if (tagId == ALL_PHOTOS) {
+            return photoDao.getPhotoGridPageBefore(from, key.timestamp, key.id, limit);
+        }
+        return photoDao.getPhotoGridPageInTagSubtreeBefore(tagId, from, key.timestamp, key.id, limit);
+    }
+
+    // Rows strictly before key in display order (newer) but inside the date range, oldest first
+    private List<PhotoGridItem> loadNewer(Key key, int limit) {
+        long from = dateRange.fromMillis;
+        Key top = firstKey();
+        if (filter != null) {
+            return photoDao.getPhotoGridItemsRaw(TagFilterQuery.pageAfter(filter, from, key.timestamp, key.id,
+                    top.timestamp, top.id, limit));
+        } else if (tagId == ALL_PHOTOS) {
+            return photoDao.getPhotoGridPageAfter(from, key.timestamp, key.id, top.timestamp, top.id, limit);
+        }
+        return photoDao.getPhotoGridPageInTagSubtreeAfter(tagId, from, key.timestamp, key.id,
+                top.timestamp, top.id, limit);
+    }
+
+    private static Key keyOf(PhotoGridItem row) {
+        return new Key(row.timestamp, row.id);
+    }
+
+    // Query stats are kept per paging mode
+    private String statsName() {
+        if (filter != null) {
+            return "PhotoPagingSource.load(filter)";
+        }
+        return tagId == ALL_PHOTOS ? "PhotoPagingSource.load(all)" : "PhotoPagingSource.load(tag)";
+    }
+
+    // (toMillis, MIN_VALUE) admits every row with timestamp < toMillis, whatever its id
+    private Key firstKey() {
+        return dateRange.toMillis == Long.MAX_VALUE ? Key.FIRST : new Key(dateRange.toMillis, Integer.MIN_VALUE);
+    }
+
+    private boolean isBelowTop(Key key) {
+        Key top = firstKey();
+        return key.timestamp < top.timestamp || (key.timestamp == top.timestamp && key.id < top.id);
+    }
+
+    // Invalidates this source for a new tag, filter or date range; the next list opens at its top
+    public void invalidateForNewQuery() {
+        queryChanged = true;
+        invalidate();
+    }
+
+    @Nullable
+    @Override
+    public Key getRefreshKey(@NonNull PagingState<Key, PhotoGridItem> state) {
+        Integer anchor = state.getAnchorPosition();
+        if (queryChanged || anchor == null) {
+            return null;
+        }
+        // Start half a page above the anchor so the visible rows land inside the reload
+        int start = anchor - state.getConfig().pageSize / 2;
+        if (start <= 0) {
+            return null;
+        }
+        PhotoGridItem first = state.closestItemToPosition(start);
+        if (first == null) {
+            return null;
+        }
+        // Pages hold rows strictly after their key, so key one id past the row to include it
+        Key key = new Key(first.timestamp, first.id + 1);
+        return isBelowTop(key) ? key : null;
+    }
+}
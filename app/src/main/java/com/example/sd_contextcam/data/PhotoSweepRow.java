@@ -0,0 +1,10 @@
+package com.example.sd_contextcam.data;
+
+// A photo row joined with its last recorded file state; the state columns are null if never swept
+public class PhotoSweepRow {
+    public int photoId;
+    public String filePath;
+    public Long size;
+    public Long modified;
+    public Long missingSince;
+}
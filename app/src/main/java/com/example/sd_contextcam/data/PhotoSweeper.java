@@ -0,0 +1,379 @@
+package com.example.sd_contextcam.data;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.core.content.ContextCompat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Keeps photo rows and files on disk consistent, a bounded slice at a time, so it can run
+ * whenever the app is idle without ever scanning the whole library at once.
+ *
+ * Rows are walked in id order and files in name order, each from a cursor persisted in
+ * SharedPreferences that wraps back to the start at the end of a pass. Each row's file size
+ * and mtime are recorded in photo_file_state, so a row whose file is unchanged costs one stat
+ * and no write on later passes. The file walk lists the directories once per pass and checks
+ * files against the same recorded state, so an unchanged tracked file costs a few stats and
+ * no query.
+ *
+ * A row whose file is gone is removed straight away if the file was app-owned (under the
+ * files dir); rows for external files (e.g. imported during onboarding) are only removed after
+ * the file has been missing for {@link #MISSING_GRACE_MS}, since storage can be unmounted.
+ * External rows are not checked at all while the app lacks permission to read media, since
+ * every external file would then look missing.
+ * Untracked app-owned images, and VAULT_ files in the vault dir, are adopted as new rows once
+ * they are old enough that a capture in progress cannot still be about to insert them.
+ */
+public class PhotoSweeper {
+    private static final String TAG = "PhotoSweeper";
+    private static final String PREFS_NAME = "photo_sweeper";
+    private static final String KEY_ROW_CURSOR = "row_cursor";
+    private static final String KEY_FILE_CURSOR = "file_cursor";
+    private static final String VAULT_DIRECTORY = "vault";
+    private static final String VAULT_PREFIX = "VAULT_";
+
+    static final int ROWS_PER_SLICE = 200;
+    static final int FILES_PER_SLICE = 200;
+    static final long MISSING_GRACE_MS = TimeUnit.DAYS.toMillis(7);
+    static final long ADOPT_MIN_AGE_MS = TimeUnit.MINUTES.toMillis(10);
+
+    // One slice at a time across every repository instance
+    private static final AtomicBoolean running = new AtomicBoolean();
+    // The file pass in progress; only touched by the slice holding running
+    private static FilePass filePass;
+
+    private static final class FilePass {
+        final File filesDir;
+        // Names relative to the files dir, e.g. CTX_x.jpg or vault/VAULT_CTX_x.jpg, sorted
+        final List<String> names;
+        // Recorded state of swept, present photos by absolute path
+        final Map<String, PhotoSweepRow> recorded;
+
+        FilePass(File filesDir, List<String> names, Map<String, PhotoSweepRow> recorded) {
+            this.filesDir = filesDir;
+            this.names = names;
+            this.recorded = recorded;
+        }
+    }
+
+    public static class Result {
+        public int rowsChecked;
+        public int rowsUnchanged;
+        public int rowsRemoved;
+        public int rowsMissing;
+        public int filesChecked;
+        public int filesUnchanged;
+        public int filesAdopted;
+        public boolean rowPassComplete;
+        public boolean filePassComplete;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "rows %d checked, %d unchanged, %d removed, %d missing; files %d checked, %d unchanged, %d adopted",
+                    rowsChecked, rowsUnchanged, rowsRemoved, rowsMissing, filesChecked, filesUnchanged, filesAdopted);
+        }
+    }
+
+    private final AppDatabase db;
+    private final File filesDir;
+    private final File vaultDir;
+    private final SharedPreferences prefs;
+    // Whether files outside filesDir can be read right now; the permission can be revoked at any time
+    private final BooleanSupplier canReadMedia;
+
+    PhotoSweeper(AppDatabase db, Context context) {
+        this(db, context.getFilesDir(), context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE),
+                () -> canReadMedia(context));
+    }
+
+    @VisibleForTesting
+    PhotoSweeper(AppDatabase db, File filesDir, SharedPreferences prefs, BooleanSupplier canReadMedia) {
+        this.db = db;
+        this.filesDir = filesDir;
+        this.vaultDir = new File(filesDir, VAULT_DIRECTORY);
+        this.prefs = prefs;
+        this.canReadMedia = canReadMedia;
+    }
+
+    /**
+     * Sweeps the next slice of rows and of files. Blocks, so call it off the main thread.
+     * Returns null if another slice is already running.
+     */
+    public Result runSlice() {
+        if (!running.compareAndSet(false, true)) {
+            return null;
+        }
+        try {
+            Result result = new Result();
+            long now = System.currentTimeMillis();
+            sweepRows(result, now);
+            sweepFiles(result, now);
+            Log.d(TAG, "Sweep slice: " + result);
+            return result;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void sweepRows(Result result, long now) {
+        int cursor = prefs.getInt(KEY_ROW_CURSOR, 0);
+        List<PhotoSweepRow> rows;
+        try {
+            rows = read("PhotoSweeper.rowSlice",
+                    () -> db.photoFileStateDao().getSweepSlice(cursor, ROWS_PER_SLICE));
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading sweep slice after row " + cursor, e);
+            return;
+        }
+
+        boolean mediaReadable = canReadMedia.getAsBoolean();
+        List<PhotoFileState> changed = new ArrayList<>();
+        List<Integer> toRemove = new ArrayList<>();
+        for (PhotoSweepRow row : rows) {
+            result.rowsChecked++;
+            File file = row.filePath == null ? null : new File(row.filePath);
+            if (file != null && !mediaReadable && !DeletePipeline.isInside(filesDir, file)) {
+                // Without the permission an external file cannot be told apart from a missing one
+                result.rowsUnchanged++;
+            } else if (file != null && file.isFile()) {
+                long size = file.length();
+                long modified = file.lastModified();
+                if (row.missingSince == null && row.size != null && row.size == size
+                        && row.modified != null && row.modified == modified) {
+                    result.rowsUnchanged++;
+                    continue;
+                }
+                changed.add(state(row.photoId, size, modified, null, now));
+            } else if (file == null || DeletePipeline.isInside(filesDir, file)) {
+                toRemove.add(row.photoId);
+            } else if (!isReadableDir(file.getParentFile())) {
+                // The volume or folder is unavailable, so the file may well still exist
+                result.rowsUnchanged++;
+            } else if (row.missingSince == null) {
+                result.rowsMissing++;
+                changed.add(state(row.photoId, row.size == null ? 0 : row.size,
+                        row.modified == null ? 0 : row.modified, now, now));
+            } else if (now - row.missingSince >= MISSING_GRACE_MS) {
+                toRemove.add(row.photoId);
+            } else {
+                result.rowsMissing++;
+            }
+        }
+
+        try {
+            if (!changed.isEmpty()) {
+                write("PhotoSweeper.saveStates", () -> {
+                    db.photoFileStateDao().saveStates(changed);
+                    return null;
+                }, result -> changed.size());
+            }
+            if (!toRemove.isEmpty()) {
+                result.rowsRemoved = db.getDeletePipeline().deletePhotos(toRemove, null).join();
+            }
+        } catch (Exception e) {
+            // Leave the cursor where it is so the slice is retried next time
+            Log.e(TAG, "Error reconciling rows after " + cursor, e);
+            return;
+        }
+
+        result.rowPassComplete = rows.size() < ROWS_PER_SLICE;
+        int next = result.rowPassComplete ? 0 : rows.get(rows.size() - 1).photoId;
+        prefs.edit().putInt(KEY_ROW_CURSOR, next).apply();
+    }
+
+    private void sweepFiles(Result result, long now) {
+        String cursor = prefs.getString(KEY_FILE_CURSOR, "");
+        FilePass pass = filePass;
+        if (pass == null || !pass.filesDir.equals(filesDir) || cursor.isEmpty()) {
+            try {
+                pass = startFilePass();
+            } catch (Exception e) {
+                Log.e(TAG, "Error starting file pass", e);
+                return;
+            }
+            filePass = pass;
+        }
+
+        // The slice is the next FILES_PER_SLICE listed names, so it costs a few stats per name
+        // however large the directories are
+        int from = firstAfter(pass.names, cursor);
+        int to = Math.min(from + FILES_PER_SLICE, pass.names.size());
+        List<File> changed = new ArrayList<>();
+        for (String name : pass.names.subList(from, to)) {
+            result.filesChecked++;
+            File file = new File(filesDir, name);
+            boolean vault = name.startsWith(VAULT_DIRECTORY + File.separator);
+            // A plain capture with a vault copy is the pre-encryption original of a vault photo
+            // left behind by a crash; it must never show up in the gallery
+            if (!vault && new File(vaultDir, VAULT_PREFIX + name).exists()) {
+                continue;
+            }
+            long modified = file.lastModified();
+            if (modified == 0 || !file.isFile()) {
+                continue;
+            }
+            PhotoSweepRow recorded = pass.recorded.get(file.getAbsolutePath());
+            if (recorded != null && recorded.size != null && recorded.size == file.length()
+                    && recorded.modified != null && recorded.modified == modified) {
+                result.filesUnchanged++;
+                continue;
+            }
+            changed.add(file);
+        }
+
+        if (!changed.isEmpty()) {
+            try {
+                result.filesAdopted = adoptUntracked(changed, now);
+            } catch (Exception e) {
+                Log.e(TAG, "Error adopting files after " + cursor, e);
+                return;
+            }
+        }
+
+        result.filePassComplete = to == pass.names.size();
+        String next = result.filePassComplete ? "" : pass.names.get(to - 1);
+        if (result.filePassComplete) {
+            filePass = null;
+        }
+        prefs.edit().putString(KEY_FILE_CURSOR, next).apply();
+    }
+
+    // Lists and sorts both directories once, and loads the recorded state of every swept photo
+    // under the files dir, so each slice of the pass only touches its own files
+    private FilePass startFilePass() throws Exception {
+        List<String> names = new ArrayList<>();
+        addCandidates(filesDir, "", names);
+        addCandidates(vaultDir, VAULT_DIRECTORY + File.separator, names);
+        names.sort(null);
+
+        // Every path that starts with "<filesDir>/"; '0' is the character after '/'
+        String dirPath = filesDir.getAbsolutePath();
+        List<PhotoSweepRow> swept = read("PhotoSweeper.filePassState",
+                () -> db.photoFileStateDao().getSweptInPathRange(dirPath + '/', dirPath + '0'));
+        Map<String, PhotoSweepRow> recorded = new HashMap<>();
+        for (PhotoSweepRow row : swept) {
+            if (row.missingSince == null) {
+                recorded.put(row.filePath, row);
+            }
+        }
+        return new FilePass(filesDir, names, recorded);
+    }
+
+    // Index of the first name after cursor in sorted names
+    private static int firstAfter(List<String> names, String cursor) {
+        int index = Collections.binarySearch(names, cursor);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    private int adoptUntracked(List<File> files, long now) throws Exception {
+        List<String> paths = new ArrayList<>();
+        for (File file : files) {
+            paths.add(file.getAbsolutePath());
+        }
+        Set<String> tracked = new HashSet<>(read("PhotoSweeper.trackedPaths",
+                () -> db.photoFileStateDao().getTrackedPaths(paths)));
+
+        List<Photo> untracked = new ArrayList<>();
+        for (File file : files) {
+            String path = file.getAbsolutePath();
+            long modified = file.lastModified();
+            if (tracked.contains(path) || modified == 0 || now - modified < ADOPT_MIN_AGE_MS) {
+                continue;
+            }
+            Photo photo = new Photo(path, modified);
+            photo.setEncrypted(file.getParentFile() != null && file.getParentFile().equals(vaultDir));
+            untracked.add(photo);
+        }
+        if (untracked.isEmpty()) {
+            return 0;
+        }
+
+        // IGNORE on the unique filePath index, in case the camera inserted one meanwhile
+        List<Long> ids = write("PhotoSweeper.adopt", () -> db.photoDao().insertPhotosIfAbsent(untracked),
+                PhotoSweeper::countInserted);
+        int adopted = countInserted(ids);
+        if (adopted > 0) {
+            Log.d(TAG, "Adopted " + adopted + " untracked files");
+        }
+        return adopted;
+    }
+
+    // Names only, no stats: images in the files dir and VAULT_ files in the vault dir
+    private static void addCandidates(File dir, String prefix, List<String> out) {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (prefix.isEmpty() ? isImageFile(name) : name.startsWith(VAULT_PREFIX)) {
+                out.add(prefix + name);
+            }
+        }
+    }
+
+    private static boolean isImageFile(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".png") || lower.endsWith(".webp");
+    }
+
+    private static boolean canReadMedia(Context context) {
+        String permission = Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                ? Manifest.permission.READ_MEDIA_IMAGES
+                : Manifest.permission.READ_EXTERNAL_STORAGE;
+        return ContextCompat.checkSelfPermission(context, permission) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    private static boolean isReadableDir(File dir) {
+        return dir != null && dir.isDirectory() && dir.canRead();
+    }
+
+    private static PhotoFileState state(int photoId, long size, long modified, Long missingSince, long now) {
+        PhotoFileState state = new PhotoFileState();
+        state.photoId = photoId;
+        state.size = size;
+        state.modified = modified;
+        state.missingSince = missingSince;
+        state.checkedAt = now;
+        return state;
+    }
+
+    private <T> T read(String method, Callable<T> body) throws Exception {
+        return db.getQueryStats().time(method, body);
+    }
+
+    private <T> T write(String method, Callable<T> body, ToIntFunction<? super T> rows) throws Exception {
+        return db.getWriter().await(() -> db.getQueryStats().time(method, body, rows));
+    }
+
+    // Ids from an insert-or-ignore; ignored rows come back as -1
+    private static int countInserted(List<Long> ids) {
+        int inserted = 0;
+        for (Long id : ids) {
+            if (id != null && id > 0) {
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+}
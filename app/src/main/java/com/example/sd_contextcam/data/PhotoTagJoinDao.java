@@ -2,6 +2,7 @@ package com.example.sd_contextcam.data;
 
 import androidx.room.Dao;
 import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
 
 import java.util.List;
@@ -14,15 +15,34 @@ public interface PhotoTagJoinDao {
     @Query("SELECT * FROM photo_tag_join WHERE tagId = :tagId")
     List<PhotoTagJoin> getPhotoJoinsForTag(int tagId);
 
+    @Query("SELECT COUNT(*) FROM photo_tag_join WHERE tagId = :tagId")
+    int getPhotoCountForTag(int tagId);
+
     @Insert
     void insertPhotoTagJoin(PhotoTagJoin photoTagJoin);
 
+    // Returns the new rowid, or -1 if the photo already carries the tag
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long insertPhotoTagJoinIfAbsent(PhotoTagJoin photoTagJoin);
+
+    // Bulk variant used by batch tagging; joins that already exist come back as -1
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    List<Long> insertPhotoTagJoins(List<PhotoTagJoin> photoTagJoins);
+
     @Query("DELETE FROM photo_tag_join WHERE photoId = :photoId AND tagId = :tagId")
-    void deletePhotoTagJoin(int photoId, int tagId);
+    int deletePhotoTagJoin(int photoId, int tagId);
 
     @Query("DELETE FROM photo_tag_join WHERE photoId = :photoId")
     void deleteAllTagJoinsForPhoto(int photoId);
 
     @Query("DELETE FROM photo_tag_join WHERE tagId = :tagId")
     void deleteAllPhotoJoinsForTag(int tagId);
+
+    @Query("DELETE FROM photo_tag_join WHERE photoId IN (:photoIds)")
+    int deleteJoinsForPhotos(List<Integer> photoIds);
+
+    // Removes at most limit of the tag's links, so a huge tag can be unlinked over several short transactions
+    @Query("DELETE FROM photo_tag_join WHERE rowid IN " +
+            "(SELECT rowid FROM photo_tag_join WHERE tagId = :tagId LIMIT :limit)")
+    int deletePhotoJoinsForTagChunk(int tagId, int limit);
 }
\ No newline at end of file
@@ -0,0 +1,331 @@
+package com.example.sd_contextcam.data;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+/**
+ * Query instrumentation for the database. Repository methods run their DAO calls through
+ * {@link #time}, which records latency (as a histogram), row counts and errors per method.
+ * Reads count the rows they return; writes count the rows they report changing.
+ * Room's QueryCallback is installed with an inline executor, so {@link #onQuery} sees each
+ * statement on the thread that runs it and charges it to the method being timed there.
+ * Calls over the slow-query budget are logged and kept, with their SQL, for {@link #dumpTo}.
+ */
+public class QueryStats {
+    private static final String TAG = "QueryStats";
+    public static final long DEFAULT_SLOW_BUDGET_MS = 50;
+    private static final int MAX_SLOW_QUERIES = 100;
+    private static final int MAX_SQL_PER_CALL = 8;
+    private static final int MAX_UNATTRIBUTED_SQL = 64;
+
+    // For writes whose result does not say how many rows they changed
+    public static final ToIntFunction<Object> NO_ROWS = result -> 0;
+
+    // Exclusive upper bounds of the latency buckets in ms; one more bucket holds everything slower
+    private static final long[] BUCKET_BOUNDS_MS = {1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024};
+
+    private final Map<String, MethodStats> byMethod = new ConcurrentHashMap<>();
+    // Statements run outside any timed call, e.g. LiveData re-queries, counted by SQL text
+    private final Map<String, Integer> unattributedSql = new HashMap<>();
+    private final ArrayDeque<SlowQuery> slowQueries = new ArrayDeque<>();
+    private final ThreadLocal<Call> currentCall = new ThreadLocal<>();
+    private volatile long slowBudgetNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_BUDGET_MS);
+
+    private static final class Call {
+        final String method;
+        final List<String> sql = new ArrayList<>();
+        int statements;
+
+        Call(String method) {
+            this.method = method;
+        }
+    }
+
+    public static class MethodStats {
+        private final String method;
+        private final long[] buckets = new long[BUCKET_BOUNDS_MS.length + 1];
+        private long calls;
+        private long errors;
+        private long slowCalls;
+        private long rows;
+        private long statements;
+        private long totalNanos;
+        private long maxNanos;
+
+        MethodStats(String method) {
+            this.method = method;
+        }
+
+        synchronized void record(long nanos, int rowCount, int statementCount, boolean failed, boolean slow) {
+            calls++;
+            rows += rowCount;
+            statements += statementCount;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            if (failed) errors++;
+            if (slow) slowCalls++;
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MS.length && millis >= BUCKET_BOUNDS_MS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket]++;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public synchronized long getCalls() {
+            return calls;
+        }
+
+        public synchronized long getErrors() {
+            return errors;
+        }
+
+        public synchronized long getSlowCalls() {
+            return slowCalls;
+        }
+
+        public synchronized long getRows() {
+            return rows;
+        }
+
+        public synchronized long getStatements() {
+            return statements;
+        }
+
+        public synchronized double getTotalMs() {
+            return totalNanos / 1e6;
+        }
+
+        public synchronized double getAverageMs() {
+            return calls == 0 ? 0 : totalNanos / 1e6 / calls;
+        }
+
+        public synchronized double getMaxMs() {
+            return maxNanos / 1e6;
+        }
+
+        // Upper bound of the bucket holding the given quantile, e.g. 0.95; -1 if beyond the last bound
+        public synchronized long getPercentileMs(double quantile) {
+            long target = (long) Math.ceil(calls * quantile);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= target && seen > 0) {
+                    return i < BUCKET_BOUNDS_MS.length ? BUCKET_BOUNDS_MS[i] : -1;
+                }
+            }
+            return 0;
+        }
+
+        synchronized JSONObject toJson() throws JSONException {
+            JSONArray histogram = new JSONArray();
+            for (int i = 0; i < buckets.length; i++) {
+                histogram.put(new JSONObject()
+                        .put("ltMs", i < BUCKET_BOUNDS_MS.length ? BUCKET_BOUNDS_MS[i] : JSONObject.NULL)
+                        .put("count", buckets[i]));
+            }
+            return new JSONObject()
+                    .put("method", method)
+                    .put("calls", calls)
+                    .put("errors", errors)
+                    .put("slowCalls", slowCalls)
+                    .put("rows", rows)
+                    .put("statements", statements)
+                    .put("totalMs", totalNanos / 1e6)
+                    .put("avgMs", calls == 0 ? 0 : totalNanos / 1e6 / calls)
+                    .put("maxMs", maxNanos / 1e6)
+                    .put("histogram", histogram);
+        }
+    }
+
+    public static class SlowQuery {
+        public final String method;
+        public final long wallTimeMillis;
+        public final double durationMs;
+        public final int rows;
+        public final List<String> sql;
+
+        SlowQuery(String method, long wallTimeMillis, double durationMs, int rows, List<String> sql) {
+            this.method = method;
+            this.wallTimeMillis = wallTimeMillis;
+            this.durationMs = durationMs;
+            this.rows = rows;
+            this.sql = sql;
+        }
+    }
+
+    public void setSlowQueryBudgetMs(long budgetMs) {
+        slowBudgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMs);
+    }
+
+    public long getSlowQueryBudgetMs() {
+        return TimeUnit.NANOSECONDS.toMillis(slowBudgetNanos);
+    }
+
+    /**
+     * Runs a read, charging its time, result size and SQL statements to method. A collection
+     * result counts its size in rows, any other non-null result one row. Calls nest:
+     * statements are charged to the innermost timed call on the thread.
+     */
+    public <T> T time(String method, Callable<T> body) throws Exception {
+        return time(method, body, QueryStats::rowCount);
+    }
+
+    /**
+     * Runs body like {@link #time(String, Callable)} but takes its row count from rows, e.g. the
+     * affected-row count or id-list size a write returns.
+     */
+    public <T> T time(String method, Callable<T> body, ToIntFunction<? super T> rows) throws Exception {
+        Call outer = currentCall.get();
+        Call call = new Call(method);
+        currentCall.set(call);
+        long start = System.nanoTime();
+        T result = null;
+        boolean failed = true;
+        try {
+            result = body.call();
+            failed = false;
+            return result;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            if (outer != null) {
+                currentCall.set(outer);
+            } else {
+                currentCall.remove();
+            }
+            record(call, elapsed, failed ? 0 : rows.applyAsInt(result), failed);
+        }
+    }
+
+    // Room QueryCallback; must be installed with an inline executor to see the calling thread
+    void onQuery(String sql, List<Object> bindArgs) {
+        Call call = currentCall.get();
+        if (call == null) {
+            synchronized (unattributedSql) {
+                Integer count = unattributedSql.get(sql);
+                if (count != null || unattributedSql.size() < MAX_UNATTRIBUTED_SQL) {
+                    unattributedSql.put(sql, count == null ? 1 : count + 1);
+                }
+            }
+            return;
+        }
+        call.statements++;
+        if (call.sql.size() < MAX_SQL_PER_CALL) {
+            call.sql.add(sql);
+        }
+    }
+
+    private void record(Call call, long nanos, int rows, boolean failed) {
+        boolean slow = nanos > slowBudgetNanos;
+        MethodStats stats = byMethod.get(call.method);
+        if (stats == null) {
+            stats = byMethod.computeIfAbsent(call.method, MethodStats::new);
+        }
+        stats.record(nanos, rows, call.statements, failed, slow);
+        if (slow) {
+            SlowQuery slowQuery = new SlowQuery(call.method, System.currentTimeMillis(), nanos / 1e6, rows, call.sql);
+            synchronized (slowQueries) {
+                if (slowQueries.size() == MAX_SLOW_QUERIES) {
+                    slowQueries.removeFirst();
+                }
+                slowQueries.addLast(slowQuery);
+            }
+            Log.w(TAG, String.format(Locale.ROOT, "Slow query: %s took %.1f ms (budget %d ms, %d rows) %s",
+                    call.method, nanos / 1e6, getSlowQueryBudgetMs(), rows, call.sql));
+        }
+    }
+
+    private static int rowCount(Object result) {
+        if (result == null) {
+            return 0;
+        }
+        if (result instanceof Collection) {
+            return ((Collection<?>) result).size();
+        }
+        return 1;
+    }
+
+    // Every timed method, most total time first
+    public List<MethodStats> getMethodStats() {
+        List<MethodStats> stats = new ArrayList<>(byMethod.values());
+        stats.sort((a, b) -> Double.compare(b.getTotalMs(), a.getTotalMs()));
+        return stats;
+    }
+
+    // The most recent calls over budget, oldest first
+    public List<SlowQuery> getSlowQueries() {
+        synchronized (slowQueries) {
+            return new ArrayList<>(slowQueries);
+        }
+    }
+
+    public void reset() {
+        byMethod.clear();
+        synchronized (unattributedSql) {
+            unattributedSql.clear();
+        }
+        synchronized (slowQueries) {
+            slowQueries.clear();
+        }
+    }
+
+    // Writes everything collected so far as JSON, for offline analysis
+    public void dumpTo(File file) throws IOException {
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(toJson().toString(2));
+        } catch (JSONException e) {
+            throw new IOException("Could not encode query stats", e);
+        }
+    }
+
+    private JSONObject toJson() throws JSONException {
+        JSONArray methods = new JSONArray();
+        for (MethodStats stats : getMethodStats()) {
+            methods.put(stats.toJson());
+        }
+        JSONArray slow = new JSONArray();
+        for (SlowQuery query : getSlowQueries()) {
+            slow.put(new JSONObject()
+                    .put("method", query.method)
+                    .put("wallTimeMillis", query.wallTimeMillis)
+                    .put("durationMs", query.durationMs)
+                    .put("rows", query.rows)
+                    .put("sql", new JSONArray(query.sql)));
+        }
+        JSONObject unattributed = new JSONObject();
+        synchronized (unattributedSql) {
+            for (Map.Entry<String, Integer> entry : unattributedSql.entrySet()) {
+                unattributed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return new JSONObject()
+                .put("dumpedAtMillis", System.currentTimeMillis())
+                .put("slowBudgetMs", getSlowQueryBudgetMs())
+                .put("methods", methods)
+                .put("slowQueries", slow)
+                .put("unattributedStatements", unattributed);
+    }
+}
@@ -1,14 +1,25 @@
 package com.example.sd_contextcam.data;
 
+import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 import androidx.room.Ignore;
 
-@Entity(tableName = "tags")
+@Entity(
+    tableName = "tags",
+    indices = {
+        // The column is NOCASE, so this also rejects "travel" next to "Travel"
+        @Index(value = "name", unique = true),
+        // Walked by the recursive subtree queries
+        @Index("parentId")
+    }
+)
 public class Tag {
     @PrimaryKey(autoGenerate = true)
     public int id;
 
+    @ColumnInfo(collate = ColumnInfo.NOCASE)
     public String name;
     
     // For nested tags, this references the parent tag id
@@ -1,9 +1,12 @@
 package com.example.sd_contextcam.data;
 
+import androidx.lifecycle.LiveData;
 import androidx.room.Dao;
 import androidx.room.Delete;
 import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.Transaction;
 import androidx.room.Update;
 
 import java.util.List;
@@ -13,6 +16,36 @@ public interface TagDao {
     @Query("SELECT * FROM tags")
     List<Tag> getAllTags();
 
+    // Re-queried by Room only when the tags table changes
+    @Query("SELECT * FROM tags ORDER BY name COLLATE NOCASE")
+    LiveData<List<Tag>> observeAllTags();
+
+    // Direct children of parentId, each counted over its whole subtree (distinct photos,
+    // so a photo tagged both Travel/Japan and Travel/Japan/Kyoto is counted once)
+    @Query("WITH RECURSIVE subtree(rootId, id) AS (" +
+            "SELECT id, id FROM tags WHERE parentId = :parentId " +
+            "UNION SELECT s.rootId, t.id FROM tags t JOIN subtree s ON t.parentId = s.id) " +
+            "SELECT t.*, COUNT(DISTINCT j.photoId) AS photoCount, MAX(p.timestamp) AS latestTimestamp, " +
+            "(SELECT COUNT(*) FROM tags c WHERE c.parentId = t.id) AS childCount " +
+            "FROM tags t " +
+            "JOIN subtree s ON s.rootId = t.id " +
+            "LEFT JOIN photo_tag_join j ON j.tagId = s.id " +
+            "LEFT JOIN photos p ON p.id = j.photoId " +
+            "GROUP BY t.id ORDER BY t.name COLLATE NOCASE")
+    LiveData<List<TagWithCount>> observeChildTagsWithSubtreeCounts(int parentId);
+
+    // Every tag below rootId at any depth, excluding rootId itself
+    @Query("WITH RECURSIVE subtree(id) AS (" +
+            "SELECT id FROM tags WHERE parentId = :rootId " +
+            "UNION SELECT t.id FROM tags t JOIN subtree s ON t.parentId = s.id) " +
+            "SELECT * FROM tags WHERE id IN subtree ORDER BY name COLLATE NOCASE")
+    List<Tag> getDescendantTags(int rootId);
+
+    // Prefix search over tag names; match is an FTS4 MATCH expression (see FtsQuery)
+    @Query("SELECT t.* FROM tags t JOIN tags_fts f ON f.docid = t.id " +
+            "WHERE tags_fts MATCH :match ORDER BY t.name COLLATE NOCASE")
+    List<Tag> searchTags(String match);
+
     @Query("SELECT * FROM tags WHERE id = :id LIMIT 1")
     Tag getTagById(int id);
 
@@ -25,12 +58,32 @@ public interface TagDao {
     @Insert
     long insertTag(Tag tag);
 
+    // Returns the new id, or -1 if a tag with the same (case-insensitive) name exists
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long insertTagIfAbsent(Tag tag);
+
+    // Id of the tag called name, creating it first if needed; never throws on duplicates
+    @Transaction
+    default int getOrCreateTagId(String name) {
+        long id = insertTagIfAbsent(new Tag(name));
+        if (id != -1) {
+            return (int) id;
+        }
+        return getTagByName(name).getId();
+    }
+
     @Update
-    void updateTag(Tag tag);
+    int updateTag(Tag tag);
 
     @Delete
     void deleteTag(Tag tag);
 
+    @Query("DELETE FROM tags WHERE id = :id")
+    int deleteTagById(int id);
+
+    @Query("UPDATE tags SET parentId = :newParentId WHERE parentId = :tagId")
+    int reparentChildren(int tagId, int newParentId);
+
     @Query("DELETE FROM tags")
     void deleteAllTags();
 }
\ No newline at end of file
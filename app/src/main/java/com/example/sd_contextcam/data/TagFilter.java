@@ -0,0 +1,300 @@
+package com.example.sd_contextcam.data;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A boolean expression over tag names, e.g. {@code (Family AND 2025) AND NOT Screenshots}.
+ * Operators are AND, OR and NOT (upper case) with the usual precedence, and parentheses group.
+ * Consecutive words form one multi-word tag name; double quotes allow names that clash with an
+ * operator or contain parentheses. Each tag also matches photos under its child tags.
+ * Compiled to SQL by {@link TagFilterQuery}.
+ */
+public final class TagFilter {
+    // Each tag name becomes one bound variable; stays far below SQLite's 999 limit
+    static final int MAX_TAGS = 50;
+
+    abstract static class Node {
+        // Structure with every tag name replaced by ?, used as the statement cache key
+        abstract void appendShape(StringBuilder out);
+
+        abstract void appendExpression(StringBuilder out);
+    }
+
+    static final class TagNode extends Node {
+        final int index;
+        final String name;
+
+        TagNode(int index, String name) {
+            this.index = index;
+            this.name = name;
+        }
+
+        @Override
+        void appendShape(StringBuilder out) {
+            out.append('?');
+        }
+
+        @Override
+        void appendExpression(StringBuilder out) {
+            boolean plain = name.matches("[\\p{L}\\p{N}_\\- ]+") && !isOperator(name.split(" "));
+            if (plain) {
+                out.append(name);
+            } else {
+                out.append('"').append(name).append('"');
+            }
+        }
+
+        private static boolean isOperator(String[] words) {
+            for (String word : words) {
+                if (word.equals("AND") || word.equals("OR") || word.equals("NOT")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    static final class NotNode extends Node {
+        final Node operand;
+
+        NotNode(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        void appendShape(StringBuilder out) {
+            out.append("NOT ");
+            operand.appendShape(out);
+        }
+
+        @Override
+        void appendExpression(StringBuilder out) {
+            out.append("NOT ");
+            operand.appendExpression(out);
+        }
+    }
+
+    static final class BinaryNode extends Node {
+        final boolean and;
+        final Node left;
+        final Node right;
+
+        BinaryNode(boolean and, Node left, Node right) {
+            this.and = and;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        void appendShape(StringBuilder out) {
+            out.append('(');
+            left.appendShape(out);
+            out.append(and ? " AND " : " OR ");
+            right.appendShape(out);
+            out.append(')');
+        }
+
+        @Override
+        void appendExpression(StringBuilder out) {
+            out.append('(');
+            left.appendExpression(out);
+            out.append(and ? " AND " : " OR ");
+            right.appendExpression(out);
+            out.append(')');
+        }
+    }
+
+    final Node root;
+    private final List<String> tagNames;
+    private final String shape;
+
+    private TagFilter(Node root, List<String> tagNames) {
+        this.root = root;
+        this.tagNames = Collections.unmodifiableList(tagNames);
+        StringBuilder out = new StringBuilder();
+        root.appendShape(out);
+        this.shape = out.toString();
+    }
+
+    /**
+     * Parses a filter expression.
+     *
+     * @throws IllegalArgumentException if the expression is empty or malformed; the message is
+     *                                  suitable for showing to the user.
+     */
+    public static TagFilter parse(String expression) {
+        Parser parser = new Parser(tokenize(expression));
+        Node root = parser.parseOr();
+        if (parser.position < parser.tokens.size()) {
+            throw new IllegalArgumentException("Unexpected '" + parser.tokens.get(parser.position) + "'");
+        }
+        return new TagFilter(root, parser.tagNames);
+    }
+
+    // A filter that matches exactly one tag (and its subtree)
+    public static TagFilter forTag(String tagName) {
+        List<String> names = new ArrayList<>();
+        names.add(tagName);
+        return new TagFilter(new TagNode(0, tagName), names);
+    }
+
+    // Tag names in the order their ? placeholders appear in the shape
+    public List<String> getTagNames() {
+        return tagNames;
+    }
+
+    public String getShape() {
+        return shape;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        root.appendExpression(out);
+        return out.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TagFilter)) return false;
+        TagFilter other = (TagFilter) o;
+        return shape.equals(other.shape) && tagNames.equals(other.tagNames);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * shape.hashCode() + tagNames.hashCode();
+    }
+
+    // Tokens are "(", ")", "AND", "OR", "NOT", or a tag name prefixed with " so it can never
+    // be mistaken for an operator
+    private static List<String> tokenize(String expression) {
+        List<String> tokens = new ArrayList<>();
+        if (expression == null) {
+            throw new IllegalArgumentException("Filter is empty");
+        }
+        StringBuilder words = new StringBuilder();
+        int i = 0;
+        while (i < expression.length()) {
+            char c = expression.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            if (c == '(' || c == ')') {
+                flushWords(words, tokens);
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '"') {
+                flushWords(words, tokens);
+                int end = expression.indexOf('"', i + 1);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Missing closing quote");
+                }
+                String name = expression.substring(i + 1, end).trim();
+                if (name.isEmpty()) {
+                    throw new IllegalArgumentException("Empty tag name in quotes");
+                }
+                tokens.add('"' + name);
+                i = end + 1;
+            } else {
+                int start = i;
+                while (i < expression.length() && !Character.isWhitespace(expression.charAt(i))
+                        && "()\"".indexOf(expression.charAt(i)) < 0) {
+                    i++;
+                }
+                String word = expression.substring(start, i);
+                if (word.equals("AND") || word.equals("OR") || word.equals("NOT")) {
+                    flushWords(words, tokens);
+                    tokens.add(word);
+                } else {
+                    if (words.length() > 0) {
+                        words.append(' ');
+                    }
+                    words.append(word);
+                }
+            }
+        }
+        flushWords(words, tokens);
+        if (tokens.isEmpty()) {
+            throw new IllegalArgumentException("Filter is empty");
+        }
+        return tokens;
+    }
+
+    private static void flushWords(StringBuilder words, List<String> tokens) {
+        if (words.length() > 0) {
+            tokens.add('"' + words.toString());
+            words.setLength(0);
+        }
+    }
+
+    // Recursive descent: or := and (OR and)* ; and := unary (AND unary)* ; unary := NOT unary | ( or ) | tag
+    private static final class Parser {
+        final List<String> tokens;
+        final List<String> tagNames = new ArrayList<>();
+        int position;
+
+        Parser(List<String> tokens) {
+            this.tokens = tokens;
+        }
+
+        Node parseOr() {
+            Node node = parseAnd();
+            while (accept("OR")) {
+                node = new BinaryNode(false, node, parseAnd());
+            }
+            return node;
+        }
+
+        Node parseAnd() {
+            Node node = parseUnary();
+            while (accept("AND")) {
+                node = new BinaryNode(true, node, parseUnary());
+            }
+            return node;
+        }
+
+        Node parseUnary() {
+            if (position >= tokens.size()) {
+                throw new IllegalArgumentException("Filter ends unexpectedly");
+            }
+            String token = tokens.get(position++);
+            switch (token) {
+                case "NOT":
+                    return new NotNode(parseUnary());
+                case "(":
+                    Node inner = parseOr();
+                    if (!accept(")")) {
+                        throw new IllegalArgumentException("Missing ')'");
+                    }
+                    return inner;
+                case ")":
+                case "AND":
+                case "OR":
+                    throw new IllegalArgumentException("Expected a tag name before '" + token + "'");
+                default:
+                    if (tagNames.size() == MAX_TAGS) {
+                        throw new IllegalArgumentException("A filter can use at most " + MAX_TAGS + " tags");
+                    }
+                    String name = token.substring(1);
+                    tagNames.add(name);
+                    return new TagNode(tagNames.size() - 1, name);
+            }
+        }
+
+        boolean accept(String expected) {
+            if (position < tokens.size() && tokens.get(position).equals(expected)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.sd_contextcam.data;
+
+import androidx.sqlite.db.SimpleSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteQuery;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles a {@link TagFilter} into one parameterized keyset-page query over photo_tag_join,
+ * or into a date histogram of the photos it matches.
+ * Tag names are always bound, never inlined, so the SQL text depends only on the filter's
+ * shape. The text is cached per shape here, and identical text also lets each SQLite
+ * connection reuse its prepared statement from its own statement cache.
+ */
+final class TagFilterQuery {
+    static final int MAX_CACHED_SHAPES = 32;
+
+    // Query kinds, each cached separately per shape
+    private static final String BEFORE = "before";
+    private static final String AFTER = "after";
+    private static final String MONTHS = "months";
+    private static final String DAYS = "days";
+
+    private static final String PAGE_COLUMNS =
+            "SELECT p.id, p.filePath, p.timestamp, p.is_encrypted, p.placeholder FROM photos p ";
+
+    // Access-ordered LRU of shape -> SQL text
+    private static final Map<String, String> SQL_BY_SHAPE =
+            new LinkedHashMap<String, String>(MAX_CACHED_SHAPES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > MAX_CACHED_SHAPES;
+                }
+            };
+
+    private TagFilterQuery() {
+    }
+
+    // Rows matching filter strictly older than (beforeTimestamp, beforeId) and no older than
+    // fromTimestamp, newest first
+    static SupportSQLiteQuery pageBefore(TagFilter filter, long fromTimestamp, long beforeTimestamp,
+                                         int beforeId, int limit) {
+        List<String> tagNames = filter.getTagNames();
+        int n = tagNames.size();
+        Object[] args = new Object[n + 4];
+        for (int i = 0; i < n; i++) {
+            args[i] = tagNames.get(i);
+        }
+        args[n] = fromTimestamp;
+        args[n + 1] = beforeTimestamp;
+        args[n + 2] = beforeId;
+        args[n + 3] = limit;
+        return new SimpleSQLiteQuery(sqlFor(filter, BEFORE), args);
+    }
+
+    // Rows matching filter strictly newer than (afterTimestamp, afterId) but older than
+    // (beforeTimestamp, beforeId), oldest first; used to prepend pages above a refresh key
+    static SupportSQLiteQuery pageAfter(TagFilter filter, long fromTimestamp, long afterTimestamp, int afterId,
+                                        long beforeTimestamp, int beforeId, int limit) {
+        List<String> tagNames = filter.getTagNames();
+        int n = tagNames.size();
+        Object[] args = new Object[n + 6];
+        for (int i = 0; i < n; i++) {
+            args[i] = tagNames.get(i);
+        }
+        args[n] = fromTimestamp;
+        args[n + 1] = afterTimestamp;
+        args[n + 2] = afterId;
+        args[n + 3] = beforeTimestamp;
+        args[n + 4] = beforeId;
+        args[n + 5] = limit;
+        return new SimpleSQLiteQuery(sqlFor(filter, AFTER), args);
+    }
+
+    // Non-empty local months (yyyy-MM) of the photos matching filter, newest first
+    static SupportSQLiteQuery monthHistogram(TagFilter filter) {
+        return histogram(filter, MONTHS, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    // Non-empty local days (yyyy-MM-dd) of the photos matching filter within [fromTimestamp,
+    // toTimestamp), newest first
+    static SupportSQLiteQuery dayHistogram(TagFilter filter, long fromTimestamp, long toTimestamp) {
+        return histogram(filter, DAYS, fromTimestamp, toTimestamp);
+    }
+
+    private static SupportSQLiteQuery histogram(TagFilter filter, String kind, long fromTimestamp, long toTimestamp) {
+        List<String> tagNames = filter.getTagNames();
+        int n = tagNames.size();
+        Object[] args = new Object[n + 2];
+        for (int i = 0; i < n; i++) {
+            args[i] = tagNames.get(i);
+        }
+        args[n] = fromTimestamp;
+        args[n + 1] = toTimestamp;
+        return new SimpleSQLiteQuery(sqlFor(filter, kind), args);
+    }
+
+    private static String sqlFor(TagFilter filter, String kind) {
+        String key = filter.getShape() + "|" + kind;
+        synchronized (SQL_BY_SHAPE) {
+            String sql = SQL_BY_SHAPE.get(key);
+            if (sql == null) {
+                sql = compile(filter, kind);
+                SQL_BY_SHAPE.put(key, sql);
+            }
+            return sql;
+        }
+    }
+
+    // filter_tags(term, id) maps each tag term to its tag and every tag below it, so each term is
+    // one EXISTS probe on the (photoId, tagId) primary key while photos are walked in keyset order
+    private static String compile(TagFilter filter, String kind) {
+        int termCount = filter.getTagNames().size();
+        StringBuilder sql = new StringBuilder("WITH RECURSIVE filter_tags(term, id) AS (")
+                .append("SELECT terms.term, t.id FROM tags t JOIN (");
+        for (int i = 0; i < termCount; i++) {
+            sql.append(i == 0 ? "SELECT 0 AS term, ? AS name" : " UNION ALL SELECT " + i + ", ?");
+        }
+        sql.append(") terms ON t.name = terms.name ")
+                .append("UNION SELECT f.term, t.id FROM tags t JOIN filter_tags f ON t.parentId = f.id) ");
+        switch (kind) {
+            case BEFORE:
+                sql.append(PAGE_COLUMNS)
+                        .append("WHERE p.timestamp >= ? AND (p.timestamp, p.id) < (?, ?) AND ");
+                appendCondition(filter.root, sql);
+                sql.append(" ORDER BY p.timestamp DESC, p.id DESC LIMIT ?");
+                break;
+            case AFTER:
+                sql.append(PAGE_COLUMNS)
+                        .append("WHERE p.timestamp >= ? AND (p.timestamp, p.id) > (?, ?) AND ")
+                        .append("(p.timestamp, p.id) < (?, ?) AND ");
+                appendCondition(filter.root, sql);
+                sql.append(" ORDER BY p.timestamp ASC, p.id ASC LIMIT ?");
+                break;
+            default:
+                // Grouped like PhotoDao's tag-subtree histograms
+                sql.append(kind.equals(MONTHS)
+                                ? "SELECT strftime('%Y-%m', p.timestamp / 1000, 'unixepoch', 'localtime')"
+                                : "SELECT date(p.timestamp / 1000, 'unixepoch', 'localtime')")
+                        .append(" AS period, COUNT(*) AS photoCount FROM photos p ")
+                        .append("WHERE p.timestamp >= ? AND p.timestamp < ? AND ");
+                appendCondition(filter.root, sql);
+                sql.append(" GROUP BY period ORDER BY period DESC");
+                break;
+        }
+        return sql.toString();
+    }
+
+    private static void appendCondition(TagFilter.Node node, StringBuilder sql) {
+        if (node instanceof TagFilter.TagNode) {
+            sql.append("EXISTS (SELECT 1 FROM photo_tag_join j WHERE j.photoId = p.id ")
+                    .append("AND j.tagId IN (SELECT id FROM filter_tags WHERE term = ")
+                    .append(((TagFilter.TagNode) node).index)
+                    .append("))");
+        } else if (node instanceof TagFilter.NotNode) {
+            sql.append("NOT ");
+            appendCondition(((TagFilter.NotNode) node).operand, sql);
+        } else {
+            TagFilter.BinaryNode binary = (TagFilter.BinaryNode) node;
+            sql.append('(');
+            appendCondition(binary.left, sql);
+            sql.append(binary.and ? " AND " : " OR ");
+            appendCondition(binary.right, sql);
+            sql.append(')');
+        }
+    }
+}
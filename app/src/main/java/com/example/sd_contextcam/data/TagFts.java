@@ -0,0 +1,18 @@
+package com.example.sd_contextcam.data;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+import androidx.room.FtsOptions;
+import androidx.room.PrimaryKey;
+
+// Full-text index over tag names, kept in sync with the tags table; docid equals the tag id
+@Fts4(contentEntity = Tag.class, tokenizer = FtsOptions.TOKENIZER_UNICODE61)
+@Entity(tableName = "tags_fts")
+public class TagFts {
+    @PrimaryKey
+    @ColumnInfo(name = "rowid")
+    public int rowid;
+
+    public String name;
+}
@@ -3,38 +3,126 @@ package com.example.sd_contextcam.data;
 import android.content.Context;
 import android.util.Log;
 
+import androidx.annotation.VisibleForTesting;
+import androidx.lifecycle.LiveData;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.YearMonth;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.ToIntFunction;
 
 public class TagRepository {
     private static final String TAG = "TagRepository";
+    private static final int SEARCH_RESULT_LIMIT = 500;
+    // Keeps each IN (...) lookup well under SQLite's 999 bound-variable limit
+    private static final int BULK_CHUNK_SIZE = 500;
     private TagDao tagDao;
     private PhotoDao photoDao;
     private PhotoTagJoinDao photoTagJoinDao;
     private AppDatabase db;
+    private DatabaseWriter writer;
+    private QueryStats queryStats;
+    private DeletePipeline deletePipeline;
+    private PhotoSweeper sweeper;
+    private Context appContext;
+
+    public interface BulkTagProgressListener {
+        void onProgress(int processed, int total);
+    }
 
     public TagRepository(Context context) {
-        db = AppDatabase.getDatabase(context);
+        this(AppDatabase.getDatabase(context), context);
+    }
+
+    // Lets tests run the repository against their own (in-memory) database
+    @VisibleForTesting
+    TagRepository(AppDatabase db, Context context) {
+        this.db = db;
         tagDao = db.tagDao();
         photoDao = db.photoDao();
         photoTagJoinDao = db.photoTagJoinDao();
+        writer = db.getWriter();
+        queryStats = db.getQueryStats();
+        deletePipeline = db.getDeletePipeline();
+        appContext = context.getApplicationContext();
+        sweeper = new PhotoSweeper(db, appContext);
+    }
+
+    public DatabaseWriter.Stats getWriterStats() {
+        return writer.getStats();
+    }
+
+    // Per-method latency histograms, row counts and slow calls for everything below
+    public QueryStats getQueryStats() {
+        return queryStats;
+    }
+
+    // Writes the query stats as JSON under the app's files dir; returns the file, or null on failure
+    public File dumpQueryStats() {
+        File file = new File(appContext.getFilesDir(), "query-stats-" + System.currentTimeMillis() + ".json");
+        try {
+            queryStats.dumpTo(file);
+            Log.d(TAG, "Query stats written to " + file);
+            return file;
+        } catch (IOException e) {
+            Log.e(TAG, "Error dumping query stats", e);
+            return null;
+        }
+    }
+
+    // Reconciles the next slice of rows and files (see PhotoSweeper); null if one is already running
+    public PhotoSweeper.Result sweepLibrarySlice() {
+        return sweeper.runSlice();
+    }
+
+    // Reads run on the calling thread; writes on the database writer. Both are timed per method.
+    private <T> T read(String method, Callable<T> body) throws Exception {
+        return queryStats.time(method, body);
+    }
+
+    // rows turns the write's result into the number of rows it changed, for the stats
+    private <T> T write(String method, Callable<T> body, ToIntFunction<? super T> rows) throws Exception {
+        return writer.await(() -> queryStats.time(method, body, rows));
     }
 
     // Tag operations
     public List<Tag> getAllTags() {
         try {
-            return tagDao.getAllTags();
+            return read("getAllTags", tagDao::getAllTags);
         } catch (Exception e) {
             Log.e(TAG, "Error getting all tags", e);
             return List.of();
         }
     }
 
+    public LiveData<List<Tag>> observeAllTags() {
+        return tagDao.observeAllTags();
+    }
+
+    // One query per drill-down level, however deep the tree is
+    public LiveData<List<TagWithCount>> getChildTagsWithSubtreeCounts(int parentId) {
+        return tagDao.observeChildTagsWithSubtreeCounts(parentId);
+    }
+
+    public List<Tag> getDescendantTags(int rootId) {
+        try {
+            return read("getDescendantTags", () -> tagDao.getDescendantTags(rootId));
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting descendant tags for: " + rootId, e);
+            return List.of();
+        }
+    }
+
     public Tag getTagById(int id) {
         try {
-            return tagDao.getTagById(id);
+            return read("getTagById", () -> tagDao.getTagById(id));
         } catch (Exception e) {
             Log.e(TAG, "Error getting tag by id: " + id, e);
             return null;
@@ -43,7 +131,7 @@ public class TagRepository {
 
     public Tag getTagByName(String name) {
         try {
-            return tagDao.getTagByName(name);
+            return read("getTagByName", () -> tagDao.getTagByName(name));
         } catch (Exception e) {
             Log.e(TAG, "Error getting tag by name: " + name, e);
             return null;
@@ -52,7 +140,7 @@ public class TagRepository {
 
     public List<Tag> getChildTags(int parentId) {
         try {
-            return tagDao.getChildTags(parentId);
+            return read("getChildTags", () -> tagDao.getChildTags(parentId));
         } catch (Exception e) {
             Log.e(TAG, "Error getting child tags for parent: " + parentId, e);
             return List.of();
@@ -61,7 +149,7 @@ public class TagRepository {
 
     public long insertTag(Tag tag) {
         try {
-            return tagDao.insertTag(tag);
+            return write("insertTag", () -> tagDao.insertTag(tag), id -> 1);
         } catch (Exception e) {
             Log.e(TAG, "Error inserting tag", e);
             return -1;
@@ -70,24 +158,25 @@ public class TagRepository {
 
     public void updateTag(Tag tag) {
         try {
-            tagDao.updateTag(tag);
+            write("updateTag", () -> tagDao.updateTag(tag), Integer::intValue);
         } catch (Exception e) {
             Log.e(TAG, "Error updating tag", e);
         }
     }
 
+    // Returns immediately; links are removed in chunks in the background (see DeletePipeline)
     public void deleteTag(Tag tag) {
-        try {
-            tagDao.deleteTag(tag);
-        } catch (Exception e) {
-            Log.e(TAG, "Error deleting tag", e);
-        }
+        deleteTag(tag.getId(), null);
+    }
+
+    public CompletableFuture<Integer> deleteTag(int tagId, DeletePipeline.Listener listener) {
+        return deletePipeline.deleteTag(tagId, listener);
     }
 
     // Photo operations
     public List<Photo> getAllPhotos() {
         try {
-            return photoDao.getAllPhotos();
+            return read("getAllPhotos", photoDao::getAllPhotos);
         } catch (Exception e) {
             Log.e(TAG, "Error getting all photos", e);
             return List.of();
@@ -96,7 +185,7 @@ public class TagRepository {
 
     public Photo getPhotoById(int id) {
         try {
-            return photoDao.getPhotoById(id);
+            return read("getPhotoById", () -> photoDao.getPhotoById(id));
         } catch (Exception e) {
             Log.e(TAG, "Error getting photo by id: " + id, e);
             return null;
@@ -105,7 +194,7 @@ public class TagRepository {
 
     public Photo getPhotoByFilePath(String filePath) {
         try {
-            return photoDao.getPhotoByFilePath(filePath);
+            return read("getPhotoByFilePath", () -> photoDao.getPhotoByFilePath(filePath));
         } catch (Exception e) {
             Log.e(TAG, "Error getting photo by file path: " + filePath, e);
             return null;
@@ -114,42 +203,149 @@ public class TagRepository {
 
     public long insertPhoto(Photo photo) {
         try {
-            return photoDao.insertPhoto(photo);
+            return write("insertPhoto", () -> photoDao.insertPhoto(photo), id -> 1);
         } catch (Exception e) {
             Log.e(TAG, "Error inserting photo", e);
             return -1;
         }
     }
 
-    public void updatePhoto(Photo photo) {
+    // Safe to repeat for the same file: the existing row is updated and its id returned
+    public long upsertPhoto(Photo photo) {
         try {
-            photoDao.updatePhoto(photo);
+            return write("upsertPhoto", () -> photoDao.upsertPhotoByFilePath(photo), id -> 1);
         } catch (Exception e) {
-            Log.e(TAG, "Error updating photo", e);
+            Log.e(TAG, "Error upserting photo: " + photo.getFilePath(), e);
+            return -1;
         }
     }
 
-    public void deletePhoto(Photo photo) {
+    public void updatePhoto(Photo photo) {
         try {
-            photoDao.deletePhoto(photo);
+            write("updatePhoto", () -> photoDao.updatePhoto(photo), Integer::intValue);
         } catch (Exception e) {
-            Log.e(TAG, "Error deleting photo", e);
+            Log.e(TAG, "Error updating photo", e);
         }
     }
 
+    // Returns immediately; the row goes first, then its file (see DeletePipeline)
+    public void deletePhoto(Photo photo) {
+        deletePhotos(List.of(photo.getId()), null);
+    }
+
+    public CompletableFuture<Integer> deletePhotos(List<Integer> photoIds, DeletePipeline.Listener listener) {
+        return deletePipeline.deletePhotos(photoIds, listener);
+    }
+
     // Photo-Tag join operations
-    public void addTagToPhoto(int photoId, int tagId) {
+    // Returns 1 if the link was added, 0 if the photo already had the tag, -1 on error
+    public int addTagToPhoto(int photoId, int tagId) {
         try {
             PhotoTagJoin join = new PhotoTagJoin(photoId, tagId);
-            photoTagJoinDao.insertPhotoTagJoin(join);
+            return write("addTagToPhoto", () -> photoTagJoinDao.insertPhotoTagJoinIfAbsent(join) == -1 ? 0 : 1,
+                    Integer::intValue);
         } catch (Exception e) {
             Log.e(TAG, "Error adding tag to photo", e);
+            return -1;
+        }
+    }
+
+    // Resolves or creates the tag and links it in one write; same return values as above
+    public int addTagToPhoto(int photoId, String tagName) {
+        try {
+            return write("addTagToPhoto(tagName)", () -> {
+                int tagId = tagDao.getOrCreateTagId(tagName);
+                return photoTagJoinDao.insertPhotoTagJoinIfAbsent(new PhotoTagJoin(photoId, tagId)) == -1 ? 0 : 1;
+            }, Integer::intValue);
+        } catch (Exception e) {
+            Log.e(TAG, "Error adding tag '" + tagName + "' to photo " + photoId, e);
+            return -1;
         }
     }
 
+    /**
+     * Tags every photo in filePaths with tagName, creating the tag and any missing photo rows.
+     * Work is done in chunked transactions on the database writer so a large batch costs a few
+     * queries per chunk instead of several round-trips per photo. Blocks until done, so it must
+     * not be called on the main thread.
+     *
+     * @param tagName   The tag to apply; created if it does not exist yet.
+     * @param filePaths The photo paths to tag.
+     * @param listener  Optional, called on the calling thread after each chunk is committed.
+     * @return The number of paths processed, or -1 if the tag could not be resolved.
+     */
+    public int addTagToPhotoPaths(String tagName, List<String> filePaths, BulkTagProgressListener listener) {
+        final int tagId;
+        try {
+            tagId = write("addTagToPhotoPaths.resolveTag", () -> tagDao.getOrCreateTagId(tagName),
+                    QueryStats.NO_ROWS);
+        } catch (Exception e) {
+            Log.e(TAG, "Error resolving tag for bulk tagging: " + tagName, e);
+            return -1;
+        }
+
+        List<String> uniquePaths = new ArrayList<>(new LinkedHashSet<>(filePaths));
+        int total = uniquePaths.size();
+        int processed = 0;
+        int linked = 0;
+        for (int start = 0; start < total; start += BULK_CHUNK_SIZE) {
+            List<String> chunk = uniquePaths.subList(start, Math.min(start + BULK_CHUNK_SIZE, total));
+            try {
+                linked += write("addTagToPhotoPaths.chunk", () -> tagPhotoPathChunk(tagId, chunk), Integer::intValue);
+                processed += chunk.size();
+            } catch (Exception e) {
+                Log.e(TAG, "Error bulk tagging chunk starting at " + start + " with tag: " + tagName, e);
+            }
+            if (listener != null) {
+                listener.onProgress(start + chunk.size(), total);
+            }
+        }
+        Log.d(TAG, "Bulk tagged " + processed + " paths as '" + tagName + "', " + linked + " newly linked");
+        return processed;
+    }
+
+    // Must run on the writer, which wraps it in a transaction. Every insert ignores rows that
+    // already exist, so re-running a batch is cheap. Returns the number of joins actually added.
+    private int tagPhotoPathChunk(int tagId, List<String> chunk) {
+        Map<String, Integer> idsByPath = new HashMap<>();
+        for (PhotoIdPath row : photoDao.getPhotoIdsByFilePaths(chunk)) {
+            idsByPath.put(row.filePath, row.id);
+        }
+
+        List<Photo> missing = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (String path : chunk) {
+            if (!idsByPath.containsKey(path)) {
+                missing.add(new Photo(path, now));
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            List<Long> insertedIds = photoDao.insertPhotosIfAbsent(missing);
+            for (int i = 0; i < insertedIds.size(); i++) {
+                long photoId = insertedIds.get(i);
+                if (photoId != -1) {
+                    idsByPath.put(missing.get(i).getFilePath(), (int) photoId);
+                }
+            }
+        }
+
+        List<PhotoTagJoin> joins = new ArrayList<>(idsByPath.size());
+        for (Integer photoId : idsByPath.values()) {
+            joins.add(new PhotoTagJoin(photoId, tagId));
+        }
+        int added = 0;
+        for (Long rowId : photoTagJoinDao.insertPhotoTagJoins(joins)) {
+            if (rowId != -1) {
+                added++;
+            }
+        }
+        return added;
+    }
+
     public void removeTagFromPhoto(int photoId, int tagId) {
         try {
-            photoTagJoinDao.deletePhotoTagJoin(photoId, tagId);
+            write("removeTagFromPhoto", () -> photoTagJoinDao.deletePhotoTagJoin(photoId, tagId), Integer::intValue);
         } catch (Exception e) {
             Log.e(TAG, "Error removing tag from photo", e);
         }
@@ -158,39 +354,154 @@ public class TagRepository {
     // Helper method to get all photos with a specific tag
     public List<Photo> getPhotosWithTag(int tagId) {
         try {
-            // Get all photo-tag joins for this tag
-            List<PhotoTagJoin> joins = photoTagJoinDao.getPhotoJoinsForTag(tagId);
-            
-            // Get all photos
-            List<Photo> allPhotos = getAllPhotos();
-            
-            // Create a map of photo id to photo for quick lookup
-            Map<Integer, Photo> photoMap = new HashMap<>();
-            for (Photo photo : allPhotos) {
-                photoMap.put(photo.id, photo);
-            }
-            
-            // Build result list with only photos that have this tag
-            List<Photo> result = new ArrayList<>();
-            for (PhotoTagJoin join : joins) {
-                Photo photo = photoMap.get(join.photoId);
-                if (photo != null) {
-                    result.add(photo);
-                }
-            }
-            
-            return result;
+            return read("getPhotosWithTag", () -> photoDao.getPhotosWithTag(tagId));
         } catch (Exception e) {
             Log.e(TAG, "Error getting photos with tag: " + tagId, e);
             return new ArrayList<>();
         }
     }
+
+    // Grid-sized rows for a tag, newest first
+    public List<PhotoGridItem> getPhotoGridItemsWithTag(int tagId) {
+        try {
+            return read("getPhotoGridItemsWithTag", () -> photoDao.getPhotoGridItemsWithTag(tagId));
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting grid items with tag: " + tagId, e);
+            return new ArrayList<>();
+        }
+    }
+
+    // A fresh keyset paging source for one tag, or PhotoPagingSource.ALL_PHOTOS, within dateRange
+    public PhotoPagingSource createPhotoPagingSource(int tagId, DateRange dateRange) {
+        return new PhotoPagingSource(db, tagId, dateRange);
+    }
+
+    // A keyset paging source over photos matching a boolean tag filter, within dateRange
+    public PhotoPagingSource createPhotoPagingSource(TagFilter filter, DateRange dateRange) {
+        return new PhotoPagingSource(db, filter, dateRange);
+    }
+
+    // Non-empty months (yyyy-MM) under tagId, or across the library for PhotoPagingSource.ALL_PHOTOS
+    public List<DateBucket> getMonthHistogram(int tagId) {
+        try {
+            return read("getMonthHistogram", () -> (tagId == PhotoPagingSource.ALL_PHOTOS)
+                    ? photoDao.getMonthHistogram()
+                    : photoDao.getMonthHistogramInTagSubtree(tagId));
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting month histogram for tag: " + tagId, e);
+            return new ArrayList<>();
+        }
+    }
+
+    // Non-empty days (yyyy-MM-dd) of one month, scoped like getMonthHistogram
+    public List<DateBucket> getDayHistogram(int tagId, YearMonth month) {
+        try {
+            if (tagId == PhotoPagingSource.ALL_PHOTOS) {
+                return read("getDayHistogram", () -> photoDao.getDayHistogram(month.toString()));
+            }
+            DateRange range = DateRange.forMonth(month);
+            return read("getDayHistogram", () -> photoDao.getDayHistogramInTagSubtree(tagId, range.fromMillis, range.toMillis));
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting day histogram for tag: " + tagId + ", month: " + month, e);
+            return new ArrayList<>();
+        }
+    }
+
+    // Non-empty months (yyyy-MM) of the photos matching a boolean tag filter
+    public List<DateBucket> getMonthHistogram(TagFilter filter) {
+        try {
+            return read("getMonthHistogramForFilter",
+                    () -> photoDao.getDateBucketsRaw(TagFilterQuery.monthHistogram(filter)));
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting month histogram for filter: " + filter, e);
+            return new ArrayList<>();
+        }
+    }
+
+    // Non-empty days (yyyy-MM-dd) of one month, scoped like getMonthHistogram(TagFilter)
+    public List<DateBucket> getDayHistogram(TagFilter filter, YearMonth month) {
+        try {
+            DateRange range = DateRange.forMonth(month);
+            return read("getDayHistogramForFilter",
+                    () -> photoDao.getDateBucketsRaw(TagFilterQuery.dayHistogram(filter, range.fromMillis, range.toMillis)));
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting day histogram for filter: " + filter + ", month: " + month, e);
+            return new ArrayList<>();
+        }
+    }
+
+    public List<PhotoGridItem> getPhotoGridItemsInTagSubtree(int tagId) {
+        try {
+            return read("getPhotoGridItemsInTagSubtree", () -> photoDao.getPhotoGridItemsInTagSubtree(tagId));
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting grid items under tag: " + tagId, e);
+            return new ArrayList<>();
+        }
+    }
+
+    // Geotagged photos inside the box, newest first
+    public List<PhotoGridItem> getPhotosInArea(double minLat, double maxLat, double minLon, double maxLon, int limit) {
+        try {
+            return read("getPhotosInArea", () -> photoDao.getPhotoGridItemsInBox(minLat, maxLat, minLon, maxLon, limit));
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting photos in area", e);
+            return new ArrayList<>();
+        }
+    }
+
+    // Photos taken nearest to (lat, lon), nearest first
+    public List<PhotoGridItem> getPhotosNear(double lat, double lon, int count) {
+        try {
+            return read("getPhotosNear", () -> photoDao.getNearestPhotoGridItems(lat, lon, count));
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting photos near " + lat + "," + lon, e);
+            return new ArrayList<>();
+        }
+    }
+
+    // Full-text prefix search over tag names, calendar events and Wi-Fi names, best matches first
+    public List<PhotoGridItem> searchPhotos(String query) {
+        String tagMatch = FtsQuery.toPrefixMatch(query, null);
+        if (tagMatch == null) {
+            return new ArrayList<>();
+        }
+        try {
+            return read("searchPhotos", () -> photoDao.searchPhotoGridItems(tagMatch,
+                    FtsQuery.toPrefixMatch(query, "calendarEvent"),
+                    FtsQuery.toPrefixMatch(query, "wifiNetwork"),
+                    SEARCH_RESULT_LIMIT));
+        } catch (Exception e) {
+            Log.e(TAG, "Error searching photos for: " + query, e);
+            return new ArrayList<>();
+        }
+    }
+
+    public List<Tag> searchTags(String query) {
+        String match = FtsQuery.toPrefixMatch(query, null);
+        if (match == null) {
+            return List.of();
+        }
+        try {
+            return read("searchTags", () -> tagDao.searchTags(match));
+        } catch (Exception e) {
+            Log.e(TAG, "Error searching tags for: " + query, e);
+            return List.of();
+        }
+    }
+
+    public List<PhotoGridItem> getAllPhotoGridItems() {
+        try {
+            return read("getAllPhotoGridItems", photoDao::getAllPhotoGridItems);
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting all grid items", e);
+            return new ArrayList<>();
+        }
+    }
     
     // Helper method to get photo count for a specific tag
     public int getPhotoCountForTag(int tagId) {
         try {
-            List<PhotoTagJoin> joins = photoTagJoinDao.getPhotoJoinsForTag(tagId);
-            return joins.size();
+            return read("getPhotoCountForTag", () -> photoTagJoinDao.getPhotoCountForTag(tagId));
         } catch (Exception e) {
             Log.e(TAG, "Error getting photo count for tag: " + tagId, e);
             return 0;
@@ -0,0 +1,33 @@
+package com.example.sd_contextcam.data;
+
+import androidx.room.Embedded;
+
+// A tag together with its aggregate photo stats, produced by a single GROUP BY query
+public class TagWithCount {
+    @Embedded
+    public Tag tag;
+
+    public int photoCount;
+
+    // Null when the tag has no photos yet
+    public Long latestTimestamp;
+
+    // Direct children only; non-zero means the tag can be drilled into
+    public int childCount;
+
+    public Tag getTag() {
+        return tag;
+    }
+
+    public int getPhotoCount() {
+        return photoCount;
+    }
+
+    public Long getLatestTimestamp() {
+        return latestTimestamp;
+    }
+
+    public int getChildCount() {
+        return childCount;
+    }
+}
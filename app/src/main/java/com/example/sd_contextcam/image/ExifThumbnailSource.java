@@ -0,0 +1,85 @@
+package com.example.sd_contextcam.image;
+
+import android.graphics.Bitmap;
+import android.graphics.ImageDecoder;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Thumbnails from the preview most camera JPEGs embed in their EXIF header. ExifInterface only
+ * reads the header segments, so this costs a few KB of I/O and a tiny decode instead of a full
+ * decode of a multi-MB file, which is what makes thumbnailing a large imported library cheap.
+ *
+ * Returns null, so the caller falls back to a downsampled decode, when the file has no preview,
+ * the preview is too small for the requested size, or its aspect ratio does not match the
+ * photo's (some cameras letterbox the preview).
+ */
+public final class ExifThumbnailSource {
+    private static final String TAG = "ExifThumbnailSource";
+    // The preview is cached on disk as the cell's thumbnail, so it may be upscaled at most 2x.
+    // The standard 160x120 preview therefore serves cells up to 240px; larger cells get a full
+    // decode rather than a permanently soft thumbnail.
+    static final float MIN_SIZE_FRACTION = 0.5f;
+    private static final float ASPECT_TOLERANCE = 0.05f;
+
+    private ExifThumbnailSource() {
+    }
+
+    // Upright software bitmap, or null; reqSize is the shorter side the caller wants
+    public static Bitmap load(String path, int reqSize) {
+        if (!isJpeg(path)) {
+            return null;
+        }
+        try {
+            ExifInterface exif = new ExifInterface(path);
+            byte[] preview = exif.hasThumbnail() ? exif.getThumbnailBytes() : null;
+            if (preview == null) {
+                return null;
+            }
+            Bitmap bitmap = ThumbnailDecoder.decode(ImageDecoder.createSource(ByteBuffer.wrap(preview)),
+                    path + " (EXIF)", 0, 0, false);
+            if (bitmap == null || !largeEnough(bitmap.getWidth(), bitmap.getHeight(), reqSize)
+                    || !sameAspect(bitmap, exif)) {
+                return null;
+            }
+            int rotation = RegionSource.rotationOf(exif);
+            if (rotation == 0) {
+                return bitmap;
+            }
+            Matrix matrix = new Matrix();
+            matrix.setRotate(rotation);
+            return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Could not read EXIF preview of " + path, e);
+            return null;
+        }
+    }
+
+    static boolean largeEnough(int previewWidth, int previewHeight, int reqSize) {
+        return Math.min(previewWidth, previewHeight) >= reqSize * MIN_SIZE_FRACTION;
+    }
+
+    private static boolean isJpeg(String path) {
+        String lower = path.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".jpg") || lower.endsWith(".jpeg");
+    }
+
+    // Compares against the stored (unrotated) photo size; unknown sizes are given the benefit of the doubt
+    private static boolean sameAspect(Bitmap preview, ExifInterface exif) {
+        int width = exif.getAttributeInt(ExifInterface.TAG_PIXEL_X_DIMENSION,
+                exif.getAttributeInt(ExifInterface.TAG_IMAGE_WIDTH, 0));
+        int height = exif.getAttributeInt(ExifInterface.TAG_PIXEL_Y_DIMENSION,
+                exif.getAttributeInt(ExifInterface.TAG_IMAGE_LENGTH, 0));
+        if (width <= 0 || height <= 0) {
+            return true;
+        }
+        float photoAspect = (float) width / height;
+        float previewAspect = (float) preview.getWidth() / preview.getHeight();
+        return Math.abs(photoAspect - previewAspect) <= photoAspect * ASPECT_TOLERANCE;
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.sd_contextcam.image;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The one place photo views load bitmaps off the main thread, instead of a new Thread per bind.
+ *
+ * Work runs on a small fixed pool fed by a priority queue: visible items before prefetches,
+ * and within a priority the newest request first, so after a fling the cells now on screen
+ * load before the ones that scrolled past. Requests for the same key share one job. Each
+ * caller gets a {@link Request} token; cancelling it (e.g. when a ViewHolder is rebound or
+ * recycled) detaches the caller, drops the job if nobody else is waiting and it has not started,
+ * and guarantees the callback never runs, so a late result cannot land in a reused cell.
+ */
+public final class ImageLoader {
+    private static final String TAG = "ImageLoader";
+
+    public static final int PRIORITY_VISIBLE = 0;
+    public static final int PRIORITY_PREFETCH = 1;
+
+    private static final int THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+    private static final ImageLoader INSTANCE = new ImageLoader();
+
+    public interface Callback {
+        // Main thread; bitmap is null if loading failed
+        void onResult(@Nullable Bitmap bitmap);
+    }
+
+    public final class Request {
+        private final Job job;
+        private final Callback callback;
+        // Only read and written on the main thread
+        private boolean cancelled;
+
+        private Request(Job job, Callback callback) {
+            this.job = job;
+            this.callback = callback;
+        }
+
+        // Main thread. Safe to call more than once, or after the result was delivered.
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            synchronized (ImageLoader.this) {
+                job.requests.remove(this);
+                if (job.requests.isEmpty() && !job.started && executor.remove(job)) {
+                    inFlight.remove(job.key);
+                }
+            }
+        }
+
+        // Moves a queued job ahead of prefetches, e.g. once its page becomes the current one
+        public void promote() {
+            synchronized (ImageLoader.this) {
+                reprioritize(job, PRIORITY_VISIBLE);
+            }
+        }
+    }
+
+    private final class Job implements Runnable, Comparable<Job> {
+        final String key;
+        final Callable<Bitmap> loader;
+        final List<Request> requests = new ArrayList<>();
+        // Only changed while the job is out of the queue, so the heap order stays valid
+        int priority;
+        long sequence;
+        boolean started;
+
+        Job(String key, Callable<Bitmap> loader, int priority) {
+            this.key = key;
+            this.loader = loader;
+            this.priority = priority;
+            this.sequence = sequences.incrementAndGet();
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            if (priority != other.priority) {
+                return Integer.compare(priority, other.priority);
+            }
+            return Long.compare(other.sequence, sequence);
+        }
+
+        @Override
+        public void run() {
+            synchronized (ImageLoader.this) {
+                if (requests.isEmpty()) {
+                    inFlight.remove(key);
+                    return;
+                }
+                started = true;
+            }
+            Bitmap bitmap = null;
+            try {
+                bitmap = loader.call();
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading " + key, e);
+            }
+            List<Request> waiting;
+            synchronized (ImageLoader.this) {
+                inFlight.remove(key);
+                waiting = new ArrayList<>(requests);
+            }
+            final Bitmap result = bitmap;
+            mainHandler.post(() -> {
+                for (Request request : waiting) {
+                    if (!request.cancelled) {
+                        request.cancelled = true;
+                        request.callback.onResult(result);
+                    }
+                }
+            });
+        }
+    }
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicLong sequences = new AtomicLong();
+    private final Map<String, Job> inFlight = new HashMap<>();
+    private final ThreadPoolExecutor executor;
+
+    private ImageLoader() {
+        AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "image-load-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static ImageLoader get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Runs loader on the pool and delivers its result to callback on the main thread, unless the
+     * returned request is cancelled first. A request for a key that is already queued or running
+     * joins that job instead of starting another.
+     */
+    public Request load(String key, int priority, Callable<Bitmap> loader, Callback callback) {
+        synchronized (this) {
+            Job job = inFlight.get(key);
+            if (job == null) {
+                job = new Job(key, loader, priority);
+                inFlight.put(key, job);
+                Request request = new Request(job, callback);
+                job.requests.add(request);
+                executor.execute(job);
+                return request;
+            }
+            Request request = new Request(job, callback);
+            job.requests.add(request);
+            reprioritize(job, Math.min(job.priority, priority));
+            return request;
+        }
+    }
+
+    // Re-queues a waiting job with a new priority and as the newest request; caller holds the lock
+    private void reprioritize(Job job, int priority) {
+        if (job.started || !executor.remove(job)) {
+            return;
+        }
+        job.priority = priority;
+        job.sequence = sequences.incrementAndGet();
+        executor.execute(job);
+    }
+}
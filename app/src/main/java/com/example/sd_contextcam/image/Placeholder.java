@@ -0,0 +1,53 @@
+package com.example.sd_contextcam.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+/**
+ * A photo shrunk to at most 8 x 8 RGB pixels, stored inline in its row so the gallery can
+ * paint the cell's colors and aspect ratio before the thumbnail has loaded. Drawn scaled up
+ * with filtering it reads as a soft blur. Layout: width, height, then 3 bytes per pixel.
+ */
+public final class Placeholder {
+    private static final int MAX_SIDE = 8;
+
+    private Placeholder() {
+    }
+
+    public static byte[] encode(Bitmap bitmap) {
+        float scale = (float) MAX_SIDE / Math.max(bitmap.getWidth(), bitmap.getHeight());
+        int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+        Bitmap small = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        int[] pixels = new int[width * height];
+        small.getPixels(pixels, 0, width, 0, 0, width, height);
+
+        byte[] data = new byte[2 + pixels.length * 3];
+        data[0] = (byte) width;
+        data[1] = (byte) height;
+        for (int i = 0; i < pixels.length; i++) {
+            data[2 + i * 3] = (byte) Color.red(pixels[i]);
+            data[3 + i * 3] = (byte) Color.green(pixels[i]);
+            data[4 + i * 3] = (byte) Color.blue(pixels[i]);
+        }
+        return data;
+    }
+
+    // Null if data is missing or not something encode() produced
+    public static Bitmap decode(byte[] data) {
+        if (data == null || data.length < 2) {
+            return null;
+        }
+        int width = data[0];
+        int height = data[1];
+        if (width < 1 || height < 1 || width > MAX_SIDE || height > MAX_SIDE
+                || data.length != 2 + width * height * 3) {
+            return null;
+        }
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = Color.rgb(data[2 + i * 3] & 0xFF, data[3 + i * 3] & 0xFF, data[4 + i * 3] & 0xFF);
+        }
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+    }
+}
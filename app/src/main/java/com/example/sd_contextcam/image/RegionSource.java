@@ -0,0 +1,110 @@
+package com.example.sd_contextcam.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.media.ExifInterface;
+import android.os.Build;
+
+import com.example.sd_contextcam.CryptoUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Random access to the pixels of one photo for {@link ZoomableImageView}: a screen-sized
+ * sample of the whole image and full-detail tiles of any part of it. Vault photos are
+ * decrypted into memory once, so the decoder never reads a plaintext file.
+ *
+ * BitmapRegionDecoder ignores EXIF orientation, so everything here is in the stored (raw)
+ * orientation and {@link #getRotation()} says how to turn it upright.
+ */
+public final class RegionSource {
+    private final BitmapRegionDecoder decoder;
+    private final int rotation;
+
+    private RegionSource(BitmapRegionDecoder decoder, int rotation) {
+        this.decoder = decoder;
+        this.rotation = rotation;
+    }
+
+    // Blocking; call off the main thread. Throws if the format has no region decoder.
+    @SuppressWarnings("deprecation")
+    public static RegionSource open(String path, boolean encrypted, Context context) throws IOException {
+        if (encrypted) {
+            byte[] bytes = CryptoUtils.readDecryptedBytes(path, context);
+            if (bytes == null) {
+                throw new IOException("Could not decrypt " + path);
+            }
+            BitmapRegionDecoder decoder = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S
+                    ? BitmapRegionDecoder.newInstance(bytes, 0, bytes.length)
+                    : BitmapRegionDecoder.newInstance(bytes, 0, bytes.length, false);
+            return new RegionSource(decoder, rotationOf(new ExifInterface(new ByteArrayInputStream(bytes))));
+        }
+        BitmapRegionDecoder decoder = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S
+                ? BitmapRegionDecoder.newInstance(path)
+                : BitmapRegionDecoder.newInstance(path, false);
+        return new RegionSource(decoder, rotationOf(new ExifInterface(path)));
+    }
+
+    // Clockwise degrees to turn the raw image upright; mirrored orientations are shown unmirrored
+    static int rotationOf(ExifInterface exif) {
+        switch (exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL)) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                return 90;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                return 180;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    public int getWidth() {
+        return decoder.getWidth();
+    }
+
+    public int getHeight() {
+        return decoder.getHeight();
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    // Largest power-of-two sample that still has a pixel per screen pixel when the upright
+    // image is fitted inside reqWidth x reqHeight
+    public int baseSampleFor(int reqWidth, int reqHeight) {
+        boolean sideways = rotation == 90 || rotation == 270;
+        float uprightWidth = sideways ? getHeight() : getWidth();
+        float uprightHeight = sideways ? getWidth() : getHeight();
+        float fit = Math.min(reqWidth / uprightWidth, reqHeight / uprightHeight);
+        int sample = 1;
+        while (sample * 2 <= 1f / fit) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    public Bitmap decodeBase(int sample) {
+        return decodeTile(new Rect(0, 0, getWidth(), getHeight()), sample);
+    }
+
+    // rect is in raw image pixels; the result is rect's size divided by sample
+    public Bitmap decodeTile(Rect rect, int sample) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sample;
+        return decoder.decodeRegion(rect, options);
+    }
+
+    // Frees the native decoder; later decodes throw IllegalStateException
+    public void close() {
+        decoder.recycle();
+    }
+}
@@ -0,0 +1,368 @@
+package com.example.sd_contextcam.image;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.ImageDecoder;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+
+import com.example.sd_contextcam.security.EncryptionUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-tier thumbnail cache in front of {@link ThumbnailDecoder}.
+ *
+ * The memory tier is an LruCache accounted in bitmap bytes, about an eighth of the heap. The
+ * disk tier holds small WebP files under cacheDir/thumbnails, named after the photo id, the
+ * file's mtime and size, and the thumbnail size. An edited or replaced file therefore gets a new
+ * name and the old entry just ages out of the size-bounded directory. Memory entries carry the
+ * same signature and are checked against the file whenever a background load runs.
+ *
+ * Misses on plain JPEGs first try the preview embedded in the EXIF header
+ * ({@link ExifThumbnailSource}), which turns most imported camera photos into a header read.
+ *
+ * Vault photos only use the memory tier, so their pixels are never written to disk in the clear.
+ * Their misses decode the small encrypted thumbnail EncryptionUtil keeps for each vault photo.
+ */
+public final class ThumbnailCache implements ComponentCallbacks2 {
+    private static final String TAG = "ThumbnailCache";
+    private static final String DIRECTORY = "thumbnails";
+    private static final long MAX_DISK_BYTES = 64L * 1024 * 1024;
+    private static final int WEBP_QUALITY = 80;
+    private static final String VAULT_KEY_PREFIX = "vault:";
+    private static final int SIZE_STEP = 128;
+    // Columns of the gallery grid, for sizing thumbnails made before any grid exists
+    private static final int GRID_COLUMNS = 3;
+
+    private static volatile ThumbnailCache instance;
+
+    private static final class Entry {
+        final Bitmap bitmap;
+        final String signature;
+
+        Entry(Bitmap bitmap, String signature) {
+            this.bitmap = bitmap;
+            this.signature = signature;
+        }
+    }
+
+    public static final class Stats {
+        public final long memoryHits;
+        public final long diskHits;
+        public final long misses;
+        // Misses served from the EXIF preview rather than a decode of the original
+        public final long exifPreviews;
+        public final long diskWrites;
+        public final long memoryBytes;
+        public final long memoryMaxBytes;
+        public final long diskBytes;
+
+        Stats(long memoryHits, long diskHits, long misses, long exifPreviews, long diskWrites,
+              long memoryBytes, long memoryMaxBytes, long diskBytes) {
+            this.memoryHits = memoryHits;
+            this.diskHits = diskHits;
+            this.misses = misses;
+            this.exifPreviews = exifPreviews;
+            this.diskWrites = diskWrites;
+            this.memoryBytes = memoryBytes;
+            this.memoryMaxBytes = memoryMaxBytes;
+            this.diskBytes = diskBytes;
+        }
+
+        public double getHitRate() {
+            long total = memoryHits + diskHits + misses;
+            return total == 0 ? 0 : (double) (memoryHits + diskHits) / total;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "memory %d hits (%d/%d KB), disk %d hits (%d KB, %d writes), %d misses (%d from EXIF), %.0f%% hit rate",
+                    memoryHits, memoryBytes / 1024, memoryMaxBytes / 1024, diskHits, diskBytes / 1024,
+                    diskWrites, misses, exifPreviews, getHitRate() * 100);
+        }
+    }
+
+    private final Context appContext;
+    private final File diskDir;
+    private final LruCache<String, Entry> memory;
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong exifPreviews = new AtomicLong();
+    private final AtomicLong diskWrites = new AtomicLong();
+    // Created on first vault load; building the master key is not free
+    private EncryptionUtil encryptionUtil;
+    // Bytes in diskDir; -1 until first counted
+    private long diskBytes = -1;
+
+    private ThumbnailCache(Context context) {
+        appContext = context.getApplicationContext();
+        diskDir = new File(appContext.getCacheDir(), DIRECTORY);
+        int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+        memory = new LruCache<String, Entry>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.bitmap.getAllocationByteCount();
+            }
+        };
+        appContext.registerComponentCallbacks(this);
+    }
+
+    public static ThumbnailCache get(Context context) {
+        if (instance == null) {
+            synchronized (ThumbnailCache.class) {
+                if (instance == null) {
+                    instance = new ThumbnailCache(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Memory tier only, without touching the disk, so it is safe on the main thread. The entry
+     * is the one last validated by {@link #load}.
+     */
+    public Bitmap peek(int photoId, int sizePx) {
+        return peek(String.valueOf(photoId), sizePx);
+    }
+
+    // As peek, for vault grid items, which are known by path rather than by photo id
+    public Bitmap peekVault(String path, int sizePx) {
+        return peek(VAULT_KEY_PREFIX + path, sizePx);
+    }
+
+    /**
+     * Returns the thumbnail from memory, then disk, decoding the original as a last resort.
+     * Does file I/O, so call it off the main thread. Null if the photo cannot be decoded.
+     */
+    public Bitmap load(int photoId, String path, boolean encrypted, int sizePx) {
+        return load(String.valueOf(photoId), path, encrypted, sizePx);
+    }
+
+    public Bitmap loadVault(String path, int sizePx) {
+        return load(VAULT_KEY_PREFIX + path, path, true, sizePx);
+    }
+
+    private Bitmap peek(String id, int sizePx) {
+        sizePx = bucket(sizePx);
+        Entry entry = memory.get(memoryKey(id, sizePx));
+        if (entry == null) {
+            return null;
+        }
+        memoryHits.incrementAndGet();
+        return entry.bitmap;
+    }
+
+    private Bitmap load(String id, String path, boolean encrypted, int sizePx) {
+        sizePx = bucket(sizePx);
+        File file = new File(path);
+        String signature = file.lastModified() + "_" + file.length();
+        String memoryKey = memoryKey(id, sizePx);
+
+        Entry entry = memory.get(memoryKey);
+        if (entry != null && entry.signature.equals(signature)) {
+            memoryHits.incrementAndGet();
+            return entry.bitmap;
+        }
+
+        File diskFile = encrypted ? null : new File(diskDir, id + "_" + signature + "_" + sizePx + ".webp");
+        if (diskFile != null && diskFile.isFile()) {
+            Bitmap bitmap = ThumbnailDecoder.decode(ImageDecoder.createSource(diskFile), diskFile.getName(),
+                    sizePx, sizePx, true);
+            if (bitmap != null) {
+                diskHits.incrementAndGet();
+                // Keeps eviction close to least-recently-used
+                diskFile.setLastModified(System.currentTimeMillis());
+                memory.put(memoryKey, new Entry(bitmap, signature));
+                return bitmap;
+            }
+        }
+
+        misses.incrementAndGet();
+        Bitmap bitmap;
+        if (encrypted) {
+            bitmap = decodeVaultThumbnail(path, sizePx);
+        } else {
+            // Camera JPEGs usually carry a usable preview in their header; both paths give a
+            // software bitmap so it can be compressed for the disk tier
+            bitmap = ExifThumbnailSource.load(path, sizePx);
+            if (bitmap != null) {
+                exifPreviews.incrementAndGet();
+            } else {
+                bitmap = ThumbnailDecoder.decodeFile(path, sizePx, sizePx, false);
+            }
+            if (bitmap != null) {
+                writeToDisk(diskFile, bitmap);
+            }
+        }
+        if (bitmap != null) {
+            memory.put(memoryKey, new Entry(bitmap, signature));
+        }
+        return bitmap;
+    }
+
+    // Decrypts the few-KB thumbnail written at encryption time, backfilling it once for photos
+    // encrypted before thumbnails existed; the full photo is only decoded if that fails
+    private Bitmap decodeVaultThumbnail(String path, int sizePx) {
+        EncryptionUtil vault = vault();
+        byte[] thumbnail = vault.readThumbnail(path);
+        if (thumbnail == null && vault.createThumbnail(path)) {
+            thumbnail = vault.readThumbnail(path);
+        }
+        if (thumbnail != null) {
+            Bitmap bitmap = ThumbnailDecoder.decode(ImageDecoder.createSource(ByteBuffer.wrap(thumbnail)),
+                    path, sizePx, sizePx, true);
+            if (bitmap != null) {
+                return bitmap;
+            }
+        }
+        return VaultImageSource.decode(path, appContext, sizePx, sizePx);
+    }
+
+    private synchronized EncryptionUtil vault() {
+        if (encryptionUtil == null) {
+            encryptionUtil = new EncryptionUtil(appContext);
+        }
+        return encryptionUtil;
+    }
+
+    /**
+     * Software thumbnail of a just-captured photo at the gallery's cell size, decoded once so
+     * it can both seed the cache through {@link #store} and be turned into a Placeholder.
+     */
+    public Bitmap decodeForCapture(String path) {
+        int size = captureSize();
+        return ThumbnailDecoder.decodeFile(path, size, size, false);
+    }
+
+    // Seeds both tiers with a capture-time thumbnail, so the gallery never decodes the original.
+    // Does file I/O; call it off the main thread.
+    public void store(int photoId, String path, Bitmap thumbnail) {
+        File file = new File(path);
+        String signature = file.lastModified() + "_" + file.length();
+        int size = captureSize();
+        writeToDisk(new File(diskDir, photoId + "_" + signature + "_" + size + ".webp"), thumbnail);
+        memory.put(memoryKey(String.valueOf(photoId), size), new Entry(thumbnail, signature));
+    }
+
+    public Stats getStats() {
+        long disk;
+        synchronized (this) {
+            disk = Math.max(diskBytes, 0);
+        }
+        return new Stats(memoryHits.get(), diskHits.get(), misses.get(), exifPreviews.get(), diskWrites.get(),
+                memory.size(), memory.maxSize(), disk);
+    }
+
+    public void clearMemory() {
+        memory.evictAll();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            // In the background nothing is on screen; the disk tier brings it back quickly
+            memory.evictAll();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW || level == TRIM_MEMORY_UI_HIDDEN) {
+            memory.trimToSize(memory.maxSize() / 2);
+        }
+        Log.d(TAG, "onTrimMemory(" + level + "): " + getStats());
+    }
+
+    @Override
+    public void onLowMemory() {
+        memory.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+
+    private int captureSize() {
+        return bucket(appContext.getResources().getDisplayMetrics().widthPixels / GRID_COLUMNS);
+    }
+
+    // Rounds cell sizes up to a step, so a grid a few pixels narrower than the screen (padding,
+    // margins) still shares entries with thumbnails made at capture time
+    private static int bucket(int sizePx) {
+        return Math.max(1, (sizePx + SIZE_STEP - 1) / SIZE_STEP) * SIZE_STEP;
+    }
+
+    private static String memoryKey(String id, int sizePx) {
+        return id + ":" + sizePx;
+    }
+
+    private void writeToDisk(File diskFile, Bitmap bitmap) {
+        if (!diskDir.isDirectory() && !diskDir.mkdirs()) {
+            Log.w(TAG, "Could not create " + diskDir);
+            return;
+        }
+        // Written under a temp name and renamed, so a reader never sees half a file
+        File temp = new File(diskDir, diskFile.getName() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            if (!bitmap.compress(ThumbnailDecoder.webpFormat(), WEBP_QUALITY, out)) {
+                throw new IOException("compress returned false");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write thumbnail " + diskFile.getName(), e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(diskFile)) {
+            temp.delete();
+            return;
+        }
+        diskWrites.incrementAndGet();
+        trimDisk(diskFile.length());
+    }
+
+    // Deletes the least recently used files once the directory grows past MAX_DISK_BYTES
+    private synchronized void trimDisk(long added) {
+        if (diskBytes < 0) {
+            diskBytes = 0;
+            File[] files = diskDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    diskBytes += file.length();
+                }
+            }
+        } else {
+            diskBytes += added;
+        }
+        if (diskBytes <= MAX_DISK_BYTES) {
+            return;
+        }
+        File[] files = diskDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        // Trim to three quarters so the directory is not listed again on every write
+        long target = MAX_DISK_BYTES * 3 / 4;
+        for (File file : files) {
+            if (diskBytes <= target) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                diskBytes -= length;
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.sd_contextcam.image;
+
+import android.graphics.Bitmap;
+import android.graphics.ImageDecoder;
+import android.os.Build;
+import android.util.Log;
+import android.util.Size;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Decodes photos at roughly the size they are shown rather than at full resolution. The
+ * header is read first and the decoder is given a power-of-two sample size, which JPEG can
+ * apply while decoding (DCT scaling), so a 12 MP photo in a grid cell never allocates more
+ * than a few hundred KB.
+ *
+ * Bitmaps for display use the default allocator, which normally puts the pixels in GPU
+ * memory (HARDWARE) and off the Java heap. Those cannot be read back or drawn on a software
+ * canvas, so callers that need the pixels ask for a software bitmap instead; it is decoded
+ * with the low-RAM policy, which gives RGB_565 for images without alpha.
+ *
+ * Vault photos are decoded from their decrypting stream by {@link VaultImageSource} instead.
+ */
+public final class ThumbnailDecoder {
+    private static final String TAG = "ThumbnailDecoder";
+
+    private ThumbnailDecoder() {
+    }
+
+    // Plain file on disk; null if it cannot be decoded
+    public static Bitmap decodeFile(String path, int reqWidth, int reqHeight, boolean hardware) {
+        return decode(ImageDecoder.createSource(new File(path)), path, reqWidth, reqHeight, hardware);
+    }
+
+    public static Bitmap decode(ImageDecoder.Source source, String label, int reqWidth, int reqHeight,
+                                boolean hardware) {
+        try {
+            return ImageDecoder.decodeBitmap(source, (decoder, info, src) -> {
+                Size size = info.getSize();
+                decoder.setTargetSampleSize(calculateInSampleSize(
+                        size.getWidth(), size.getHeight(), reqWidth, reqHeight));
+                if (!hardware) {
+                    decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+                    decoder.setMemorySizePolicy(ImageDecoder.MEMORY_POLICY_LOW_RAM);
+                }
+                // Tolerate truncated files, e.g. a capture interrupted mid-write
+                decoder.setOnPartialImageListener(e -> true);
+            });
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Failed to decode " + label, e);
+            return null;
+        }
+    }
+
+    // Lossy WebP; WEBP_LOSSY only exists from API 30
+    @SuppressWarnings("deprecation")
+    public static Bitmap.CompressFormat webpFormat() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                ? Bitmap.CompressFormat.WEBP_LOSSY
+                : Bitmap.CompressFormat.WEBP;
+    }
+
+    // Largest power of two that keeps both sides at least the requested size
+    static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return inSampleSize;
+        }
+        if (height > reqHeight || width > reqWidth) {
+            final int halfHeight = height / 2;
+            final int halfWidth = width / 2;
+            while ((halfHeight / inSampleSize) >= reqHeight
+                    && (halfWidth / inSampleSize) >= reqWidth) {
+                inSampleSize *= 2;
+            }
+        }
+        return inSampleSize;
+    }
+}
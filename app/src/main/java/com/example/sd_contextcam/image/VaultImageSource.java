@@ -0,0 +1,110 @@
+package com.example.sd_contextcam.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.util.Log;
+
+import com.example.sd_contextcam.CryptoUtils;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Decodes vault photos straight from the decrypting EncryptedFile stream, so no plaintext is
+ * written to disk and the whole file never sits in memory at once.
+ *
+ * The first pass reads only the header (EXIF orientation and image bounds), which decrypts a
+ * few 4 KB segments. The second pass decodes with a power-of-two sample size for the requested
+ * size. The decoder's scratch buffers come from a small pool shared by all loader threads, and
+ * nothing here is shared between calls, so concurrent decodes are safe.
+ */
+public final class VaultImageSource {
+    private static final String TAG = "VaultImageSource";
+    // EXIF plus the start-of-frame segment; larger headers fall back to a second header read
+    private static final int HEADER_LIMIT = 128 * 1024;
+    // BitmapFactory's recommended inTempStorage size
+    private static final int BUFFER_SIZE = 16 * 1024;
+    // One per ImageLoader thread is enough; extra callers allocate
+    private static final ArrayBlockingQueue<byte[]> BUFFERS = new ArrayBlockingQueue<>(4);
+
+    private VaultImageSource() {
+    }
+
+    // Upright bitmap at least reqWidth x reqHeight where the photo allows; null if it cannot be
+    // decrypted or decoded. Blocking; call off the main thread.
+    public static Bitmap decode(String path, Context context, int reqWidth, int reqHeight) {
+        byte[] buffer = acquireBuffer();
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inTempStorage = buffer;
+            int rotation = readHeader(path, context, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                Log.e(TAG, "Not an image: " + path);
+                return null;
+            }
+
+            boolean sideways = rotation == 90 || rotation == 270;
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = ThumbnailDecoder.calculateInSampleSize(
+                    sideways ? options.outHeight : options.outWidth,
+                    sideways ? options.outWidth : options.outHeight,
+                    reqWidth, reqHeight);
+            Bitmap bitmap;
+            try (InputStream in = CryptoUtils.openDecryptedStream(path, context)) {
+                bitmap = BitmapFactory.decodeStream(in, null, options);
+            }
+            return bitmap == null ? null : rotate(bitmap, rotation);
+        } catch (GeneralSecurityException | IOException | RuntimeException e) {
+            Log.e(TAG, "Failed to decode " + path, e);
+            return null;
+        } finally {
+            BUFFERS.offer(buffer);
+        }
+    }
+
+    // Fills options.outWidth/outHeight and returns the EXIF rotation
+    private static int readHeader(String path, Context context, BitmapFactory.Options options)
+            throws GeneralSecurityException, IOException {
+        options.inJustDecodeBounds = true;
+        int rotation;
+        try (InputStream in = new BufferedInputStream(CryptoUtils.openDecryptedStream(path, context), BUFFER_SIZE)) {
+            in.mark(HEADER_LIMIT);
+            rotation = RegionSource.rotationOf(new ExifInterface(in));
+            try {
+                in.reset();
+                BitmapFactory.decodeStream(in, null, options);
+                return rotation;
+            } catch (IOException e) {
+                // EXIF ran past the mark; read the bounds from a fresh stream below
+            }
+        }
+        try (InputStream in = CryptoUtils.openDecryptedStream(path, context)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        return rotation;
+    }
+
+    private static Bitmap rotate(Bitmap bitmap, int rotation) {
+        if (rotation == 0) {
+            return bitmap;
+        }
+        Matrix matrix = new Matrix();
+        matrix.setRotate(rotation);
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (rotated != bitmap) {
+            bitmap.recycle();
+        }
+        return rotated;
+    }
+
+    private static byte[] acquireBuffer() {
+        byte[] buffer = BUFFERS.poll();
+        return buffer != null ? buffer : new byte[BUFFER_SIZE];
+    }
+}
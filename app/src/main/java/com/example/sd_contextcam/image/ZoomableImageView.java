@@ -0,0 +1,374 @@
+package com.example.sd_contextcam.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+import android.view.ViewParent;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Full-screen photo view with pinch, pan and double-tap zoom. It shows a screen-sized base
+ * bitmap right away. Once zoomed past the base's resolution, it decodes only the visible part
+ * of the photo, in TILE_SIZE tiles at the sample size the zoom calls for, through
+ * {@link ImageLoader}. Tiles are kept in an LRU bounded by MAX_TILE_BYTES, so a page never holds
+ * more than the base plus that budget however far it is zoomed.
+ *
+ * Coordinates: raw image pixels are turned upright by {@code orientation} (EXIF rotation) and
+ * then placed on screen by {@code user} (fit, zoom and pan).
+ */
+public class ZoomableImageView extends View {
+    // Side of a decoded tile in bitmap pixels
+    private static final int TILE_SIZE = 512;
+    private static final long MAX_TILE_BYTES = 24L * 1024 * 1024;
+    // Most zoomed in: one image pixel over this many screen pixels
+    private static final float MAX_PIXEL_ZOOM = 2f;
+    private static final float DOUBLE_TAP_ZOOM = 3f;
+
+    private static final class Tile {
+        final int sample;
+        final Rect rawRect;
+        final Bitmap bitmap;
+
+        Tile(int sample, Rect rawRect, Bitmap bitmap) {
+            this.sample = sample;
+            this.rawRect = rawRect;
+            this.bitmap = bitmap;
+        }
+    }
+
+    private Bitmap base;
+    private int baseSample = 1;
+    private RegionSource source;
+    private String loadKey;
+    private Drawable errorDrawable;
+    private int rawWidth;
+    private int rawHeight;
+    private float uprightWidth;
+    private float uprightHeight;
+    private float fitScale = 1f;
+
+    private final Matrix orientation = new Matrix();
+    private final Matrix user = new Matrix();
+    private final Matrix drawMatrix = new Matrix();
+    private final float[] values = new float[9];
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    // Access-ordered, so the eldest tile is the least recently wanted
+    private final LinkedHashMap<String, Tile> tiles = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, ImageLoader.Request> pendingTiles = new HashMap<>();
+    private long tileBytes;
+
+    private final ScaleGestureDetector scaleDetector;
+    private final GestureDetector gestureDetector;
+
+    public ZoomableImageView(Context context) {
+        this(context, null);
+    }
+
+    public ZoomableImageView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoomBy(detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                if (!isZoomed() || scaleDetector.isInProgress()) {
+                    return false;
+                }
+                // At the left or right edge, let the pager take the swipe to the next photo
+                if (!panBy(-distanceX, -distanceY)) {
+                    disallowParentIntercept(false);
+                }
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                if (isZoomed()) {
+                    resetZoom();
+                } else {
+                    zoomBy(DOUBLE_TAP_ZOOM, e.getX(), e.getY());
+                }
+                updateTiles();
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Shows a photo. base is the whole image decoded at baseSample; source, if not null, gives
+     * full-detail tiles and base is then in its raw orientation. Without a source base must
+     * already be upright and zooming just magnifies it.
+     */
+    public void setImage(@NonNull Bitmap base, int baseSample, @Nullable RegionSource source, String loadKey) {
+        releaseTiles();
+        this.base = base;
+        this.baseSample = baseSample;
+        this.source = source;
+        this.loadKey = loadKey;
+        this.errorDrawable = null;
+        rawWidth = source != null ? source.getWidth() : base.getWidth() * baseSample;
+        rawHeight = source != null ? source.getHeight() : base.getHeight() * baseSample;
+
+        orientation.setRotate(source != null ? source.getRotation() : 0);
+        RectF bounds = new RectF(0, 0, rawWidth, rawHeight);
+        orientation.mapRect(bounds);
+        orientation.postTranslate(-bounds.left, -bounds.top);
+        uprightWidth = bounds.width();
+        uprightHeight = bounds.height();
+        resetZoom();
+    }
+
+    public void showError(Drawable drawable) {
+        releaseTiles();
+        base = null;
+        source = null;
+        errorDrawable = drawable;
+        invalidate();
+    }
+
+    // Back to fit-to-screen; also drops every tile, e.g. when the page is swiped away
+    public void resetZoom() {
+        if (base != null && getWidth() > 0 && getHeight() > 0) {
+            fitScale = Math.min(getWidth() / uprightWidth, getHeight() / uprightHeight);
+            user.setScale(fitScale, fitScale);
+            user.postTranslate((getWidth() - uprightWidth * fitScale) / 2,
+                    (getHeight() - uprightHeight * fitScale) / 2);
+        }
+        releaseTiles();
+        invalidate();
+    }
+
+    public boolean isZoomed() {
+        return base != null && currentScale() > fitScale * 1.01f;
+    }
+
+    public void releaseTiles() {
+        for (ImageLoader.Request request : pendingTiles.values()) {
+            request.cancel();
+        }
+        pendingTiles.clear();
+        tiles.clear();
+        tileBytes = 0;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        resetZoom();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        releaseTiles();
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        int action = event.getActionMasked();
+        if (action == MotionEvent.ACTION_DOWN) {
+            disallowParentIntercept(isZoomed());
+        } else if (action == MotionEvent.ACTION_POINTER_DOWN) {
+            // A second finger means a pinch, never a page swipe
+            disallowParentIntercept(true);
+        }
+        scaleDetector.onTouchEvent(event);
+        gestureDetector.onTouchEvent(event);
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            updateTiles();
+        }
+        return true;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (base == null) {
+            if (errorDrawable != null) {
+                int w = errorDrawable.getIntrinsicWidth();
+                int h = errorDrawable.getIntrinsicHeight();
+                int left = (getWidth() - w) / 2;
+                int top = (getHeight() - h) / 2;
+                errorDrawable.setBounds(left, top, left + w, top + h);
+                errorDrawable.draw(canvas);
+            }
+            return;
+        }
+        drawMatrix.set(orientation);
+        drawMatrix.postConcat(user);
+        canvas.save();
+        canvas.concat(drawMatrix);
+
+        canvas.save();
+        canvas.scale(baseSample, baseSample);
+        canvas.drawBitmap(base, 0, 0, paint);
+        canvas.restore();
+
+        // Coarser tiles first, so a zoom step shows the previous level until the new one lands
+        int sample = tileSample();
+        for (Tile tile : tiles.values()) {
+            if (tile.sample > sample) {
+                canvas.drawBitmap(tile.bitmap, null, tile.rawRect, paint);
+            }
+        }
+        for (Tile tile : tiles.values()) {
+            if (tile.sample == sample) {
+                canvas.drawBitmap(tile.bitmap, null, tile.rawRect, paint);
+            }
+        }
+        canvas.restore();
+    }
+
+    // Requests the tiles covering the visible area at the current zoom and cancels the rest
+    private void updateTiles() {
+        RegionSource tileSource = source;
+        int sample = tileSample();
+        if (tileSource == null || getWidth() == 0 || sample >= baseSample) {
+            releaseTiles();
+            invalidate();
+            return;
+        }
+
+        drawMatrix.set(orientation);
+        drawMatrix.postConcat(user);
+        Matrix inverse = new Matrix();
+        drawMatrix.invert(inverse);
+        RectF visible = new RectF(0, 0, getWidth(), getHeight());
+        inverse.mapRect(visible);
+        if (!visible.intersect(0, 0, rawWidth, rawHeight)) {
+            return;
+        }
+
+        int step = TILE_SIZE * sample;
+        List<String> wanted = new ArrayList<>();
+        for (int top = (int) (visible.top / step) * step; top < visible.bottom; top += step) {
+            for (int left = (int) (visible.left / step) * step; left < visible.right; left += step) {
+                String key = sample + ":" + left + ":" + top;
+                wanted.add(key);
+                if (tiles.get(key) != null || pendingTiles.containsKey(key)) {
+                    continue;
+                }
+                Rect rect = new Rect(left, top, Math.min(left + step, rawWidth), Math.min(top + step, rawHeight));
+                pendingTiles.put(key, ImageLoader.get().load(loadKey + "#tile:" + key, ImageLoader.PRIORITY_VISIBLE,
+                        () -> tileSource.decodeTile(rect, sample),
+                        bitmap -> onTileLoaded(key, sample, rect, bitmap)));
+            }
+        }
+
+        Iterator<Map.Entry<String, ImageLoader.Request>> pending = pendingTiles.entrySet().iterator();
+        while (pending.hasNext()) {
+            Map.Entry<String, ImageLoader.Request> entry = pending.next();
+            if (!wanted.contains(entry.getKey())) {
+                entry.getValue().cancel();
+                pending.remove();
+            }
+        }
+    }
+
+    private void onTileLoaded(String key, int sample, Rect rect, Bitmap bitmap) {
+        pendingTiles.remove(key);
+        if (bitmap == null) {
+            return;
+        }
+        tiles.put(key, new Tile(sample, rect, bitmap));
+        tileBytes += bitmap.getAllocationByteCount();
+        Iterator<Tile> eldest = tiles.values().iterator();
+        while (tileBytes > MAX_TILE_BYTES && eldest.hasNext()) {
+            tileBytes -= eldest.next().bitmap.getAllocationByteCount();
+            eldest.remove();
+        }
+        invalidate();
+    }
+
+    // Power-of-two sample that gives at least one decoded pixel per screen pixel at this zoom
+    private int tileSample() {
+        float pixelsPerScreenPixel = 1f / currentScale();
+        int sample = 1;
+        while (sample * 2 <= pixelsPerScreenPixel) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    private float currentScale() {
+        user.getValues(values);
+        return values[Matrix.MSCALE_X];
+    }
+
+    private void zoomBy(float factor, float focusX, float focusY) {
+        float scale = currentScale();
+        float maxScale = Math.max(fitScale * DOUBLE_TAP_ZOOM, MAX_PIXEL_ZOOM);
+        float target = Math.max(fitScale, Math.min(scale * factor, maxScale));
+        user.postScale(target / scale, target / scale, focusX, focusY);
+        clamp();
+        invalidate();
+    }
+
+    // Returns false if the image could not move sideways any further
+    private boolean panBy(float dx, float dy) {
+        user.getValues(values);
+        float before = values[Matrix.MTRANS_X];
+        user.postTranslate(dx, dy);
+        clamp();
+        user.getValues(values);
+        invalidate();
+        return Math.abs(values[Matrix.MTRANS_X] - before) > 0.5f || dx == 0;
+    }
+
+    // Centers the image on any axis where it is smaller than the view, else keeps the view covered
+    private void clamp() {
+        RectF rect = new RectF(0, 0, uprightWidth, uprightHeight);
+        user.mapRect(rect);
+        user.postTranslate(clampDelta(rect.left, rect.right, getWidth()), clampDelta(rect.top, rect.bottom, getHeight()));
+    }
+
+    private static float clampDelta(float start, float end, int viewSize) {
+        if (end - start <= viewSize) {
+            return (viewSize - (end - start)) / 2 - start;
+        }
+        if (start > 0) {
+            return -start;
+        }
+        if (end < viewSize) {
+            return viewSize - end;
+        }
+        return 0;
+    }
+
+    private void disallowParentIntercept(boolean disallow) {
+        ViewParent parent = getParent();
+        if (parent != null) {
+            parent.requestDisallowInterceptTouchEvent(disallow);
+        }
+    }
+}
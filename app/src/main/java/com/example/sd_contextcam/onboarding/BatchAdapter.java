@@ -9,6 +9,8 @@ import android.widget.Button;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.sd_contextcam.R;
@@ -16,9 +18,23 @@ import com.google.android.material.textfield.TextInputLayout;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+
+public class BatchAdapter extends ListAdapter<PhotoBatch, BatchAdapter.BatchViewHolder> {
+    private static final DiffUtil.ItemCallback<PhotoBatch> DIFF_CALLBACK = new DiffUtil.ItemCallback<PhotoBatch>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull PhotoBatch oldItem, @NonNull PhotoBatch newItem) {
+            return Objects.equals(oldItem.getTitle(), newItem.getTitle());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull PhotoBatch oldItem, @NonNull PhotoBatch newItem) {
+            return oldItem.equals(newItem);
+        }
+    };
+    // Partial rebind that only refreshes the tag dropdown, keeping whatever the user typed
+    private static final Object PAYLOAD_ALL_TAGS = new Object();
 
-public class BatchAdapter extends RecyclerView.Adapter<BatchAdapter.BatchViewHolder> {
-    private List<PhotoBatch> batches = new ArrayList<>();
     private List<String> allTags = new ArrayList<>();
     private OnTagApplyListener onTagApplyListener;
 
@@ -26,18 +42,22 @@ public class BatchAdapter extends RecyclerView.Adapter<BatchAdapter.BatchViewHol
         void onTagApply(PhotoBatch batch, String tag);
     }
 
+    public BatchAdapter() {
+        super(DIFF_CALLBACK);
+    }
+
     public void setOnTagApplyListener(OnTagApplyListener listener) {
         this.onTagApplyListener = listener;
     }
 
     public void setBatches(List<PhotoBatch> batches) {
-        this.batches = batches;
-        notifyDataSetChanged();
+        // Copied, since callers keep editing their list and the diff runs in the background
+        submitList(new ArrayList<>(batches));
     }
 
     public void setAllTags(List<String> allTags) {
         this.allTags = allTags;
-        notifyDataSetChanged();
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_ALL_TAGS);
     }
 
     @NonNull
@@ -50,13 +70,16 @@ public class BatchAdapter extends RecyclerView.Adapter<BatchAdapter.BatchViewHol
 
     @Override
     public void onBindViewHolder(@NonNull BatchViewHolder holder, int position) {
-        PhotoBatch batch = batches.get(position);
-        holder.bind(batch);
+        holder.bind(getItem(position));
     }
 
     @Override
-    public int getItemCount() {
-        return batches.size();
+    public void onBindViewHolder(@NonNull BatchViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.contains(PAYLOAD_ALL_TAGS)) {
+            holder.bindTags();
+        } else {
+            super.onBindViewHolder(holder, position, payloads);
+        }
     }
 
     class BatchViewHolder extends RecyclerView.ViewHolder {
@@ -83,13 +106,8 @@ public class BatchAdapter extends RecyclerView.Adapter<BatchAdapter.BatchViewHol
             photoCount.setText(batch.getPhotoCount() + " photos");
 
             // Set up tag autocomplete
-            ArrayAdapter<String> adapter = new ArrayAdapter<>(
-                    itemView.getContext(),
-                    android.R.layout.simple_dropdown_item_1line,
-                    allTags
-            );
-            tagAutoComplete.setAdapter(adapter);
-            
+            bindTags();
+
             // Set suggested tag if available
             if (batch.getSuggestedTag() != null && !batch.getSuggestedTag().isEmpty()) {
                 tagAutoComplete.setText(batch.getSuggestedTag(), false);
@@ -103,5 +121,14 @@ public class BatchAdapter extends RecyclerView.Adapter<BatchAdapter.BatchViewHol
                 }
             });
         }
+
+        void bindTags() {
+            ArrayAdapter<String> adapter = new ArrayAdapter<>(
+                    itemView.getContext(),
+                    android.R.layout.simple_dropdown_item_1line,
+                    allTags
+            );
+            tagAutoComplete.setAdapter(adapter);
+        }
     }
 }
\ No newline at end of file
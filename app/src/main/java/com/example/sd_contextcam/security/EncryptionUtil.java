@@ -1,22 +1,33 @@
 package com.example.sd_contextcam.security;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.ImageDecoder;
 import android.util.Log;
 
 import androidx.security.crypto.EncryptedFile;
 import androidx.security.crypto.MasterKey;
 
+import com.example.sd_contextcam.image.ThumbnailDecoder;
+
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 
 public class EncryptionUtil {
     private static final String TAG = "EncryptionUtil";
     private static final String VAULT_DIRECTORY = "vault";
+    // Kept outside the vault directory, which VaultActivity lists as photos
+    private static final String THUMBNAIL_DIRECTORY = "vault_thumbs";
+    // Shorter side of a vault thumbnail in px; a grid cell on a 1080 px wide screen is 360
+    public static final int THUMBNAIL_SIZE = 384;
+    private static final int THUMBNAIL_QUALITY = 75;
     
     private MasterKey masterKey;
     private Context context;
@@ -70,8 +81,11 @@ public class EncryptionUtil {
                     outputStream.write(buffer, 0, length);
                 }
             }
-            
-            return encryptedFile.getAbsolutePath();
+
+            // Best effort; the grid falls back to the full photo and backfills it if missing
+            String encryptedPath = encryptedFile.getAbsolutePath();
+            writeThumbnail(ImageDecoder.createSource(inputFile), encryptedPath);
+            return encryptedPath;
         } catch (GeneralSecurityException | IOException e) {
             Log.e(TAG, "Error encrypting photo", e);
             return null;
@@ -119,6 +133,106 @@ public class EncryptionUtil {
         }
     }
     
+    /**
+     * Where the encrypted thumbnail of a vault photo lives
+     * @param filesDir The app's files directory
+     * @param encryptedFilePath The path to the encrypted photo
+     * @return The thumbnail file, which may not exist
+     */
+    public static File getThumbnailFile(File filesDir, String encryptedFilePath) {
+        File thumbnailDir = new File(filesDir, THUMBNAIL_DIRECTORY);
+        return new File(thumbnailDir, new File(encryptedFilePath).getName() + ".thumb");
+    }
+
+    /**
+     * Decrypts the thumbnail of a vault photo, a few KB of WebP
+     * @param encryptedFilePath The path to the encrypted photo
+     * @return The thumbnail bytes, or null if there is no thumbnail or decryption failed
+     */
+    public byte[] readThumbnail(String encryptedFilePath) {
+        File thumbnailFile = getThumbnailFile(context.getFilesDir(), encryptedFilePath);
+        if (masterKey == null || !thumbnailFile.isFile()) {
+            return null;
+        }
+        try (InputStream inputStream = encryptedFile(thumbnailFile).openFileInput()) {
+            return readFully(inputStream, thumbnailFile.length());
+        } catch (GeneralSecurityException | IOException e) {
+            Log.e(TAG, "Error decrypting thumbnail", e);
+            return null;
+        }
+    }
+
+    /**
+     * Creates the thumbnail for a vault photo encrypted before thumbnails existed. Decrypts
+     * the full photo into memory once; nothing is written in the clear.
+     * @param encryptedFilePath The path to the encrypted photo
+     * @return True if the thumbnail was written
+     */
+    public boolean createThumbnail(String encryptedFilePath) {
+        if (masterKey == null) {
+            Log.e(TAG, "Master key not initialized");
+            return false;
+        }
+        File file = new File(encryptedFilePath);
+        byte[] photo;
+        try (InputStream inputStream = encryptedFile(file).openFileInput()) {
+            photo = readFully(inputStream, file.length());
+        } catch (GeneralSecurityException | IOException e) {
+            Log.e(TAG, "Error decrypting photo for thumbnail", e);
+            return false;
+        }
+        return writeThumbnail(ImageDecoder.createSource(ByteBuffer.wrap(photo)), encryptedFilePath);
+    }
+
+    private boolean writeThumbnail(ImageDecoder.Source source, String encryptedFilePath) {
+        Bitmap bitmap = ThumbnailDecoder.decode(source, encryptedFilePath, THUMBNAIL_SIZE, THUMBNAIL_SIZE, false);
+        if (bitmap == null) {
+            return false;
+        }
+        // The sample size only gets within a power of two; scale the rest of the way
+        int shorter = Math.min(bitmap.getWidth(), bitmap.getHeight());
+        if (shorter > THUMBNAIL_SIZE) {
+            float scale = (float) THUMBNAIL_SIZE / shorter;
+            bitmap = Bitmap.createScaledBitmap(bitmap, Math.round(bitmap.getWidth() * scale),
+                    Math.round(bitmap.getHeight() * scale), true);
+        }
+
+        File thumbnailFile = getThumbnailFile(context.getFilesDir(), encryptedFilePath);
+        File thumbnailDir = thumbnailFile.getParentFile();
+        if (thumbnailDir != null && !thumbnailDir.exists()) {
+            thumbnailDir.mkdirs();
+        }
+        // EncryptedFile refuses to overwrite an existing file
+        thumbnailFile.delete();
+        try (OutputStream outputStream = encryptedFile(thumbnailFile).openFileOutput()) {
+            bitmap.compress(ThumbnailDecoder.webpFormat(), THUMBNAIL_QUALITY, outputStream);
+            return true;
+        } catch (GeneralSecurityException | IOException e) {
+            Log.e(TAG, "Error encrypting thumbnail", e);
+            thumbnailFile.delete();
+            return false;
+        }
+    }
+
+    private EncryptedFile encryptedFile(File file) throws GeneralSecurityException, IOException {
+        return new EncryptedFile.Builder(
+                context,
+                file,
+                masterKey,
+                EncryptedFile.FileEncryptionScheme.AES256_GCM_HKDF_4KB
+        ).build();
+    }
+
+    private static byte[] readFully(InputStream inputStream, long sizeHint) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(Math.max(sizeHint, 32), Integer.MAX_VALUE));
+        byte[] buffer = new byte[16 * 1024];
+        int length;
+        while ((length = inputStream.read(buffer)) > 0) {
+            out.write(buffer, 0, length);
+        }
+        return out.toByteArray();
+    }
+
     /**
      * Deletes an encrypted photo from the vault
      * @param encryptedFilePath The path to the encrypted file
@@ -127,6 +241,7 @@ public class EncryptionUtil {
     public boolean deleteEncryptedPhoto(String encryptedFilePath) {
         try {
             File encryptedFile = new File(encryptedFilePath);
+            getThumbnailFile(context.getFilesDir(), encryptedFilePath).delete();
             return encryptedFile.delete();
         } catch (Exception e) {
             Log.e(TAG, "Error deleting encrypted photo", e);
@@ -9,26 +9,53 @@ import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Transformations;
+import androidx.paging.Pager;
+import androidx.paging.PagingConfig;
+import androidx.paging.PagingData;
+import androidx.paging.PagingLiveData;
 
+import com.example.sd_contextcam.data.DateBucket;
+import com.example.sd_contextcam.data.DateRange;
+import com.example.sd_contextcam.data.DeletePipeline;
 import com.example.sd_contextcam.data.Photo;
+import com.example.sd_contextcam.data.PhotoGridItem;
+import com.example.sd_contextcam.data.PhotoPagingSource;
 import com.example.sd_contextcam.data.Tag;
+import com.example.sd_contextcam.data.TagFilter;
 import com.example.sd_contextcam.data.TagRepository;
+import com.example.sd_contextcam.data.TagWithCount;
 
+import java.time.YearMonth;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import kotlin.jvm.functions.Function1;
+
 public class PhotoViewModel extends AndroidViewModel {
     private static final String TAG = "PhotoViewModel";
+    private static final int PAGE_SIZE = 60;
     private TagRepository repository;
     private ExecutorService executorService;
 
-    // The single source of truth for the list of photos being displayed.
-    private MutableLiveData<List<Photo>> photosLiveData = new MutableLiveData<>();
-    private MutableLiveData<List<Tag>> tagsLiveData = new MutableLiveData<>();
+    // The single source of truth for the photos being displayed, loaded a page at a time.
+    private final LiveData<PagingData<PhotoGridItem>> photoPages;
+    private volatile int pagedTagId = PhotoPagingSource.ALL_PHOTOS;
+    // When set, takes precedence over pagedTagId
+    private volatile TagFilter pagedFilter;
+    private volatile DateRange pagedDateRange = DateRange.ALL;
+    private volatile PhotoPagingSource currentPagingSource;
+    private final LiveData<List<Tag>> tagsLiveData;
     private MutableLiveData<Boolean> isLoading = new MutableLiveData<>();
 
+    private final MutableLiveData<List<PhotoGridItem>> searchResults = new MutableLiveData<>();
+
+    // Tag hierarchy level shown in the gallery; -1 is the root
+    private final MutableLiveData<Integer> tagLevelParentId = new MutableLiveData<>(-1);
+    private final LiveData<List<TagWithCount>> tagsAtLevel;
+
     public interface InsertCallback {
         void onInsertComplete(long id);
     }
@@ -37,22 +64,68 @@ public class PhotoViewModel extends AndroidViewModel {
         void onTagReceived(Tag tag);
     }
 
+    public interface BulkTagCallback {
+        void onBulkTagComplete(int taggedCount);
+    }
+
+    public interface DeleteCallback {
+        void onDeleteProgress(int deleted, int total);
+
+        void onDeleteComplete(int deleted, int filesRemoved);
+    }
+
+    public interface HistogramCallback {
+        void onHistogramLoaded(List<DateBucket> buckets);
+    }
+
     public PhotoViewModel(@NonNull Application application) {
         super(application);
         repository = new TagRepository(application);
+        // Room re-runs the query whenever the tags table changes, so writes never need a manual reload
+        tagsLiveData = repository.observeAllTags();
         executorService = Executors.newFixedThreadPool(2);
         isLoading.postValue(false);
+
+        Pager<PhotoPagingSource.Key, PhotoGridItem> pager = new Pager<>(
+                new PagingConfig(PAGE_SIZE, PAGE_SIZE, false),
+                () -> {
+                    TagFilter filter = pagedFilter;
+                    DateRange range = pagedDateRange;
+                    currentPagingSource = (filter != null)
+                            ? repository.createPhotoPagingSource(filter, range)
+                            : repository.createPhotoPagingSource(pagedTagId, range);
+                    return currentPagingSource;
+                });
+        photoPages = PagingLiveData.cachedIn(PagingLiveData.getLiveData(pager), this);
+
+        Function1<Integer, LiveData<List<TagWithCount>>> levelQuery = repository::getChildTagsWithSubtreeCounts;
+        tagsAtLevel = Transformations.switchMap(tagLevelParentId, levelQuery);
     }
 
     // --- LiveData Getters ---
-    public LiveData<List<Photo>> getPhotos() {
-        return photosLiveData; // The Activity observes this
+    public LiveData<PagingData<PhotoGridItem>> getPhotos() {
+        return photoPages; // The Activity observes this
     }
 
     public LiveData<List<Tag>> getTags() {
         return tagsLiveData;
     }
 
+    // Tags at the current hierarchy level with subtree counts. Backed by Room, so counts
+    // refresh on their own whenever tags or joins change.
+    public LiveData<List<TagWithCount>> getTagsWithPhotoCounts() {
+        return tagsAtLevel;
+    }
+
+    // Changing level costs a single query regardless of tree depth
+    public void setTagLevel(int parentId) {
+        tagLevelParentId.setValue(parentId);
+    }
+
+    public LiveData<List<PhotoGridItem>> getSearchResults() {
+        return searchResults;
+    }
+
     public LiveData<Boolean> getIsLoading() {
         return isLoading;
     }
@@ -61,47 +134,78 @@ public class PhotoViewModel extends AndroidViewModel {
         return repository;
     }
 
+    // Also clears any tag filter or date range
     public void loadPhotosByTagId(int tagId) {
-        isLoading.postValue(true);
+        pagedFilter = null;
+        pagedDateRange = DateRange.ALL;
+        pagedTagId = tagId;
+        refreshPagingSource();
+    }
+
+    // Pages photos matching a boolean tag expression, e.g. TagFilter.parse("(Family AND 2025) AND NOT Screenshots")
+    public void loadPhotosByFilter(TagFilter filter) {
+        pagedFilter = filter;
+        refreshPagingSource();
+    }
+
+    // Narrows whatever is being paged (tag, filter or all photos); DateRange.ALL removes the limit
+    public void setDateRange(DateRange range) {
+        pagedDateRange = range;
+        refreshPagingSource();
+    }
+
+    // Months with photos under tagId (or the whole library for ALL_PHOTOS), newest first.
+    // Delivered on the main thread.
+    public void loadMonthHistogram(int tagId, HistogramCallback callback) {
         executorService.execute(() -> {
-            try {
-                List<Photo> photos = repository.getPhotosWithTag(tagId);
-                // Correctly post the new list to the main photosLiveData object
-                photosLiveData.postValue(photos);
-            } catch (Exception e) {
-                Log.e(TAG, "Error loading photos for tag: " + tagId, e);
-                photosLiveData.postValue(new ArrayList<>()); // Post an empty list on error
-            } finally {
-                isLoading.postValue(false);
-            }
+            List<DateBucket> buckets = repository.getMonthHistogram(tagId);
+            new Handler(Looper.getMainLooper()).post(() -> callback.onHistogramLoaded(buckets));
         });
     }
-    // ========================== END OF FIX ===========================
 
-    public void loadPhotos() {
-        isLoading.postValue(true);
+    public void loadDayHistogram(int tagId, YearMonth month, HistogramCallback callback) {
         executorService.execute(() -> {
-            try {
-                List<Photo> photos = repository.getAllPhotos();
-                photosLiveData.postValue(photos);
-            } catch (Exception e) {
-                Log.e(TAG, "Error loading photos", e);
-                photosLiveData.postValue(new ArrayList<>());
-            } finally {
-                isLoading.postValue(false);
-            }
+            List<DateBucket> buckets = repository.getDayHistogram(tagId, month);
+            new Handler(Looper.getMainLooper()).post(() -> callback.onHistogramLoaded(buckets));
         });
     }
 
-    public void loadTags() {
+    // Months with photos matching filter, newest first. Delivered on the main thread.
+    public void loadMonthHistogram(TagFilter filter, HistogramCallback callback) {
+        executorService.execute(() -> {
+            List<DateBucket> buckets = repository.getMonthHistogram(filter);
+            new Handler(Looper.getMainLooper()).post(() -> callback.onHistogramLoaded(buckets));
+        });
+    }
+
+    public void loadDayHistogram(TagFilter filter, YearMonth month, HistogramCallback callback) {
+        executorService.execute(() -> {
+            List<DateBucket> buckets = repository.getDayHistogram(filter, month);
+            new Handler(Looper.getMainLooper()).post(() -> callback.onHistogramLoaded(buckets));
+        });
+    }
+
+    private void refreshPagingSource() {
+        // The pager asks for a new source, built from the current tag or filter, as soon as the
+        // old one is invalid; the new list starts at its top, not at the old list's position
+        PhotoPagingSource source = currentPagingSource;
+        if (source != null) {
+            source.invalidateForNewQuery();
+        }
+    }
+
+    public void loadPhotos() {
+        loadPhotosByTagId(PhotoPagingSource.ALL_PHOTOS);
+    }
+
+    public void searchPhotos(String query) {
         isLoading.postValue(true);
         executorService.execute(() -> {
             try {
-                List<Tag> tags = repository.getAllTags();
-                tagsLiveData.postValue(tags);
+                searchResults.postValue(repository.searchPhotos(query));
             } catch (Exception e) {
-                Log.e(TAG, "Error loading tags", e);
-                tagsLiveData.postValue(new ArrayList<>());
+                Log.e(TAG, "Error searching photos for: " + query, e);
+                searchResults.postValue(new ArrayList<>());
             } finally {
                 isLoading.postValue(false);
             }
@@ -114,7 +218,8 @@ public class PhotoViewModel extends AndroidViewModel {
         executorService.execute(() -> {
             long newId = -1;
             try {
-                newId = repository.insertPhoto(photo);
+                // Upsert by file path, so re-adding a file already in the library reuses its row
+                newId = repository.upsertPhoto(photo);
                 Log.d(TAG, "Inserted photo, got ID: " + newId);
             } catch (Exception e) {
                 Log.e(TAG, "Error adding photo", e);
@@ -135,7 +240,6 @@ public class PhotoViewModel extends AndroidViewModel {
             try {
                 newId = repository.insertTag(tag);
                 Log.d(TAG, "Inserted tag, got ID: " + newId);
-                loadTags();
             } catch (Exception e) {
                 Log.e(TAG, "Error adding tag", e);
             } finally {
@@ -152,14 +256,87 @@ public class PhotoViewModel extends AndroidViewModel {
     public void addTagToPhoto(long photoId, int tagId) {
         executorService.execute(() -> {
             try {
-                repository.addTagToPhoto((int) photoId, tagId);
-                Log.d(TAG, "Linked photo " + photoId + " to tag " + tagId);
+                int added = repository.addTagToPhoto((int) photoId, tagId);
+                Log.d(TAG, "Linked photo " + photoId + " to tag " + tagId + " (added: " + added + ")");
+            } catch (Exception e) {
+                Log.e(TAG, "Error adding tag to photo", e);
+            }
+        });
+    }
+
+    // Creates the tag if needed; repeating the call for the same photo and tag is a no-op
+    public void addTagToPhoto(long photoId, String tagName) {
+        executorService.execute(() -> {
+            try {
+                int added = repository.addTagToPhoto((int) photoId, tagName);
+                Log.d(TAG, "Linked photo " + photoId + " to tag " + tagName + " (added: " + added + ")");
             } catch (Exception e) {
                 Log.e(TAG, "Error adding tag to photo", e);
             }
         });
     }
 
+    // Progress is reported on a background thread; the completion callback runs on the main thread
+    public void addTagToPhotoPaths(String tagName, List<String> filePaths,
+                                   TagRepository.BulkTagProgressListener progressListener,
+                                   BulkTagCallback callback) {
+        executorService.execute(() -> {
+            int taggedCount = -1;
+            try {
+                taggedCount = repository.addTagToPhotoPaths(tagName, filePaths, progressListener);
+                Log.d(TAG, "Bulk tagged " + taggedCount + " photos as " + tagName);
+            } catch (Exception e) {
+                Log.e(TAG, "Error bulk tagging photos as: " + tagName, e);
+            } finally {
+                final int finalCount = taggedCount;
+                new Handler(Looper.getMainLooper()).post(() -> {
+                    if (callback != null) {
+                        callback.onBulkTagComplete(finalCount);
+                    }
+                });
+            }
+        });
+    }
+
+    // Both callbacks run on the main thread; the caller never waits on the delete
+    public void deletePhotos(List<Integer> photoIds, DeleteCallback callback) {
+        repository.deletePhotos(photoIds, mainThreadListener(callback));
+    }
+
+    public void deleteTag(int tagId, DeleteCallback callback) {
+        repository.deleteTag(tagId, mainThreadListener(callback));
+    }
+
+    private DeletePipeline.Listener mainThreadListener(DeleteCallback callback) {
+        if (callback == null) {
+            return null;
+        }
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        return new DeletePipeline.Listener() {
+            @Override
+            public void onProgress(int deleted, int total) {
+                mainHandler.post(() -> callback.onDeleteProgress(deleted, total));
+            }
+
+            @Override
+            public void onComplete(int deleted, int filesRemoved) {
+                mainHandler.post(() -> callback.onDeleteComplete(deleted, filesRemoved));
+            }
+        };
+    }
+
+    // One bounded maintenance slice in the background; drops rows for deleted files and
+    // picks up files that never got a row
+    public void sweepLibrarySlice() {
+        executorService.execute(() -> {
+            try {
+                repository.sweepLibrarySlice();
+            } catch (Exception e) {
+                Log.e(TAG, "Error sweeping library", e);
+            }
+        });
+    }
+
     public void getTagByName(String tagName, TagCallback callback) {
         executorService.execute(() -> {
             Tag tag = null;
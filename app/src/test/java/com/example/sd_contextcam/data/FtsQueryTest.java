@@ -0,0 +1,32 @@
+package com.example.sd_contextcam.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FtsQueryTest {
+    @Test
+    public void everyWordBecomesAPrefixTerm() {
+        assertEquals("kyoto* tem*", FtsQuery.toPrefixMatch("  Kyoto   TEM ", null));
+        assertEquals("name:kyoto* name:tem*", FtsQuery.toPrefixMatch("kyoto tem", "name"));
+    }
+
+    @Test
+    public void punctuationSplitsWordsLikeTheTokenizer() {
+        assertEquals("wi* fi*", FtsQuery.toPrefixMatch("wi-fi", null));
+        assertEquals("home* 5g*", FtsQuery.toPrefixMatch("home_5G", null));
+        assertEquals("o* brien*", FtsQuery.toPrefixMatch("O'Brien", null));
+    }
+
+    @Test
+    public void operatorsAndQuotesCannotReachTheQuery() {
+        assertEquals("a* or* b*", FtsQuery.toPrefixMatch("\"a\" OR (b*)", null));
+        assertEquals("caf\u00e9*", FtsQuery.toPrefixMatch("-caf\u00e9", null));
+    }
+
+    @Test
+    public void inputWithoutWordsGivesNull() {
+        assertNull(FtsQuery.toPrefixMatch(null, null));
+        assertNull(FtsQuery.toPrefixMatch("  -- \"\" * ", null));
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.sd_contextcam.data;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class QueryStatsTest {
+    private final QueryStats stats = new QueryStats();
+
+    @Test
+    public void readsCountTheRowsTheyReturn() throws Exception {
+        stats.time("list", () -> List.of(1, 2, 3));
+        stats.time("single", () -> "row");
+        stats.time("missing", () -> null);
+
+        assertEquals(3, rows("list"));
+        assertEquals(1, rows("single"));
+        assertEquals(0, rows("missing"));
+    }
+
+    @Test
+    public void writesCountTheRowsTheyReportChanging() throws Exception {
+        // An update returning its affected-row count, and an insert returning a new id
+        stats.time("update", () -> 250, Integer::intValue);
+        stats.time("insert", () -> 42L, id -> 1);
+        stats.time("resolve", () -> 7, QueryStats.NO_ROWS);
+
+        assertEquals(250, rows("update"));
+        assertEquals(1, rows("insert"));
+        assertEquals(0, rows("resolve"));
+    }
+
+    @Test
+    public void failedCallsCountNoRows() {
+        try {
+            stats.time("failing", () -> {
+                throw new IllegalStateException("boom");
+            }, result -> 100);
+            fail();
+        } catch (Exception e) {
+            assertEquals("boom", e.getMessage());
+        }
+        QueryStats.MethodStats failing = method("failing");
+        assertEquals(0, failing.getRows());
+        assertEquals(1, failing.getErrors());
+    }
+
+    private long rows(String method) {
+        return method(method).getRows();
+    }
+
+    private QueryStats.MethodStats method(String method) {
+        for (QueryStats.MethodStats stats : stats.getMethodStats()) {
+            if (stats.getMethod().equals(method)) {
+                return stats;
+            }
+        }
+        throw new AssertionError("No stats for " + method);
+    }
+}
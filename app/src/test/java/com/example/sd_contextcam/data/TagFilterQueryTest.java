@@ -0,0 +1,158 @@
+package com.example.sd_contextcam.data;
+
+import androidx.sqlite.db.SupportSQLiteProgram;
+import androidx.sqlite.db.SupportSQLiteQuery;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TagFilterQueryTest {
+    private static final String TERM_0 = "EXISTS (SELECT 1 FROM photo_tag_join j WHERE j.photoId = p.id "
+            + "AND j.tagId IN (SELECT id FROM filter_tags WHERE term = 0))";
+    private static final String TERM_1 = TERM_0.replace("term = 0", "term = 1");
+    private static final String TERM_2 = TERM_0.replace("term = 0", "term = 2");
+
+    @Test
+    public void pageBeforeCompilesConditionAndKeyset() {
+        SupportSQLiteQuery query = TagFilterQuery.pageBefore(TagFilter.parse("A AND NOT B"), 10L, 20L, 30, 40);
+        String sql = query.getSql();
+
+        assertTrue(sql, sql.startsWith("WITH RECURSIVE filter_tags(term, id) AS (SELECT terms.term, t.id FROM tags t "
+                + "JOIN (SELECT 0 AS term, ? AS name UNION ALL SELECT 1, ?) terms ON t.name = terms.name "));
+        assertTrue(sql, sql.endsWith("WHERE p.timestamp >= ? AND (p.timestamp, p.id) < (?, ?) AND "
+                + "(" + TERM_0 + " AND NOT " + TERM_1 + ") ORDER BY p.timestamp DESC, p.id DESC LIMIT ?"));
+        assertEquals(countPlaceholders(sql), query.getArgCount());
+        assertEquals(Arrays.<Object>asList("A", "B", 10L, 20L, 30L, 40L), bind(query));
+    }
+
+    @Test
+    public void pageAfterAddsLowerBoundAndAscendingOrder() {
+        SupportSQLiteQuery query = TagFilterQuery.pageAfter(TagFilter.parse("A OR B AND C"), 1L, 2L, 3, 4L, 5, 6);
+        String sql = query.getSql();
+
+        assertTrue(sql, sql.endsWith("WHERE p.timestamp >= ? AND (p.timestamp, p.id) > (?, ?) AND "
+                + "(p.timestamp, p.id) < (?, ?) AND (" + TERM_0 + " OR (" + TERM_1 + " AND " + TERM_2 + ")) "
+                + "ORDER BY p.timestamp ASC, p.id ASC LIMIT ?"));
+        assertEquals(countPlaceholders(sql), query.getArgCount());
+        assertEquals(Arrays.<Object>asList("A", "B", "C", 1L, 2L, 3L, 4L, 5L, 6L), bind(query));
+    }
+
+    @Test
+    public void histogramsGroupTheFilteredPhotosByLocalDate() {
+        SupportSQLiteQuery months = TagFilterQuery.monthHistogram(TagFilter.parse("A AND NOT B"));
+        String sql = months.getSql();
+
+        assertTrue(sql, sql.endsWith("SELECT strftime('%Y-%m', p.timestamp / 1000, 'unixepoch', 'localtime') "
+                + "AS period, COUNT(*) AS photoCount FROM photos p WHERE p.timestamp >= ? AND p.timestamp < ? AND "
+                + "(" + TERM_0 + " AND NOT " + TERM_1 + ") GROUP BY period ORDER BY period DESC"));
+        assertEquals(countPlaceholders(sql), months.getArgCount());
+        assertEquals(Arrays.<Object>asList("A", "B", Long.MIN_VALUE, Long.MAX_VALUE), bind(months));
+
+        SupportSQLiteQuery days = TagFilterQuery.dayHistogram(TagFilter.parse("C AND NOT D"), 10L, 20L);
+        assertTrue(days.getSql(), days.getSql().contains("SELECT date(p.timestamp / 1000, 'unixepoch', 'localtime') AS period"));
+        assertNotEquals(sql, days.getSql());
+        assertEquals(Arrays.<Object>asList("C", "D", 10L, 20L), bind(days));
+    }
+
+    @Test
+    public void tagNamesAreBoundNeverInlined() {
+        String sql = TagFilterQuery.pageBefore(TagFilter.parse("\"x'); DROP TABLE photos; --\""), 0, 0, 0, 1).getSql();
+        assertFalse(sql, sql.contains("DROP"));
+    }
+
+    @Test
+    public void sameShapeReusesCachedSqlWithNewBindings() {
+        SupportSQLiteQuery first = TagFilterQuery.pageBefore(TagFilter.parse("Family AND NOT Work"), 0, 100, 7, 60);
+        SupportSQLiteQuery second = TagFilterQuery.pageBefore(TagFilter.parse("Trip AND NOT Screenshots"), 5, 50, 3, 30);
+
+        assertSame(first.getSql(), second.getSql());
+        assertEquals(Arrays.<Object>asList("Family", "Work", 0L, 100L, 7L, 60L), bind(first));
+        assertEquals(Arrays.<Object>asList("Trip", "Screenshots", 5L, 50L, 3L, 30L), bind(second));
+    }
+
+    @Test
+    public void differentShapesAndDirectionsGetDifferentSql() {
+        TagFilter and = TagFilter.parse("A AND B");
+        String before = TagFilterQuery.pageBefore(and, 0, 0, 0, 1).getSql();
+        String after = TagFilterQuery.pageAfter(and, 0, 0, 0, 0, 0, 1).getSql();
+        String or = TagFilterQuery.pageBefore(TagFilter.parse("A OR B"), 0, 0, 0, 1).getSql();
+
+        assertNotEquals(before, after);
+        assertNotEquals(before, or);
+        assertSame(after, TagFilterQuery.pageAfter(TagFilter.parse("C AND D"), 0, 0, 0, 0, 0, 1).getSql());
+    }
+
+    @Test
+    public void leastRecentlyUsedShapeIsEvicted() {
+        TagFilter kept = TagFilter.parse("Evict AND (Me OR NOT Now)");
+        String cached = TagFilterQuery.pageBefore(kept, 0, 0, 0, 1).getSql();
+
+        // Fill the cache with other shapes: A, A OR A, A OR A OR A, ...
+        for (int i = 1; i <= TagFilterQuery.MAX_CACHED_SHAPES; i++) {
+            List<String> names = new ArrayList<>();
+            for (int n = 0; n < i; n++) {
+                names.add("t" + n);
+            }
+            TagFilterQuery.pageBefore(TagFilter.parse(String.join(" OR ", names)), 0, 0, 0, 1);
+        }
+
+        String recompiled = TagFilterQuery.pageBefore(kept, 0, 0, 0, 1).getSql();
+        assertNotSame(cached, recompiled);
+        assertEquals(cached, recompiled);
+    }
+
+    private static int countPlaceholders(String sql) {
+        int count = 0;
+        for (char c : sql.toCharArray()) {
+            if (c == '?') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Arguments in placeholder order, as the query binds them
+    private static List<Object> bind(SupportSQLiteQuery query) {
+        Object[] values = new Object[query.getArgCount()];
+        query.bindTo(new SupportSQLiteProgram() {
+            @Override
+            public void bindNull(int index) {
+                values[index - 1] = null;
+            }
+
+            @Override
+            public void bindLong(int index, long value) {
+                values[index - 1] = value;
+            }
+
+            @Override
+            public void bindDouble(int index, double value) {
+                values[index - 1] = value;
+            }
+
+            @Override
+            public void bindString(int index, String value) {
+                values[index - 1] = value;
+            }
+
+            @Override
+            public void bindBlob(int index, byte[] value) {
+                values[index - 1] = value;
+            }
+
+            @Override
+            public void clearBindings() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        return Arrays.asList(values);
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.sd_contextcam.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TagFilterTest {
+    @Test
+    public void andBindsTighterThanOr() {
+        assertEquals("(? OR (? AND ?))", TagFilter.parse("A OR B AND C").getShape());
+        assertEquals("((? AND ?) OR ?)", TagFilter.parse("A AND B OR C").getShape());
+    }
+
+    @Test
+    public void operatorsAreLeftAssociative() {
+        assertEquals("((? AND ?) AND ?)", TagFilter.parse("A AND B AND C").getShape());
+        assertEquals("((? OR ?) OR ?)", TagFilter.parse("A OR B OR C").getShape());
+    }
+
+    @Test
+    public void notAppliesToTheNextOperandOnly() {
+        assertEquals("(NOT ? AND ?)", TagFilter.parse("NOT A AND B").getShape());
+        assertEquals("NOT (? OR ?)", TagFilter.parse("NOT (A OR B)").getShape());
+        assertEquals("NOT NOT ?", TagFilter.parse("NOT NOT A").getShape());
+    }
+
+    @Test
+    public void parenthesesOverridePrecedence() {
+        TagFilter filter = TagFilter.parse("(Family AND 2025) AND NOT Screenshots");
+        assertEquals("((? AND ?) AND NOT ?)", filter.getShape());
+        assertEquals(Arrays.asList("Family", "2025", "Screenshots"), filter.getTagNames());
+
+        assertEquals("(? AND (? OR ?))", TagFilter.parse("A AND (B OR C)").getShape());
+    }
+
+    @Test
+    public void consecutiveWordsFormOneTagName() {
+        TagFilter filter = TagFilter.parse("  Family   Trip AND New York ");
+        assertEquals(Arrays.asList("Family Trip", "New York"), filter.getTagNames());
+        assertEquals("(? AND ?)", filter.getShape());
+    }
+
+    @Test
+    public void quotesAllowOperatorWordsAndParentheses() {
+        TagFilter filter = TagFilter.parse("\"AND\" OR \"Trip (2024)\"");
+        assertEquals(Arrays.asList("AND", "Trip (2024)"), filter.getTagNames());
+        assertEquals("(? OR ?)", filter.getShape());
+    }
+
+    @Test
+    public void lowerCaseOperatorsArePartOfTagNames() {
+        assertEquals(List.of("salt and pepper"), TagFilter.parse("salt and pepper").getTagNames());
+    }
+
+    @Test
+    public void unknownTagsParseLikeAnyOther() {
+        // The parser never looks tags up; an unknown name simply matches no photos in SQL
+        TagFilter filter = TagFilter.parse("NoSuchTag OR NOT AlsoMissing");
+        assertEquals(Arrays.asList("NoSuchTag", "AlsoMissing"), filter.getTagNames());
+    }
+
+    @Test
+    public void toStringParsesBackToAnEqualFilter() {
+        for (String expression : Arrays.asList("(Family AND 2025) AND NOT Screenshots",
+                "\"AND\" OR \"Trip (2024)\"", "NOT (A OR B) AND C D")) {
+            TagFilter filter = TagFilter.parse(expression);
+            assertEquals(filter, TagFilter.parse(filter.toString()));
+            assertEquals(filter.hashCode(), TagFilter.parse(filter.toString()).hashCode());
+        }
+    }
+
+    @Test
+    public void forTagMatchesParsedSingleTag() {
+        assertEquals(TagFilter.parse("Travel"), TagFilter.forTag("Travel"));
+    }
+
+    @Test
+    public void malformedExpressionsAreRejected() {
+        assertRejected(null, "Filter is empty");
+        assertRejected("", "Filter is empty");
+        assertRejected("   ", "Filter is empty");
+        assertRejected("A AND", "Filter ends unexpectedly");
+        assertRejected("NOT", "Filter ends unexpectedly");
+        assertRejected("AND A", "Expected a tag name before 'AND'");
+        assertRejected("A OR OR B", "Expected a tag name before 'OR'");
+        assertRejected("()", "Expected a tag name before ')'");
+        assertRejected("(A OR B", "Missing ')'");
+        assertRejected("A OR B)", "Unexpected ')'");
+        assertRejected("A (B)", "Unexpected '('");
+        assertRejected("\"Trip", "Missing closing quote");
+        assertRejected("\" \" AND A", "Empty tag name in quotes");
+    }
+
+    @Test
+    public void tagCountIsCapped() {
+        assertEquals(TagFilter.MAX_TAGS, TagFilter.parse(orOfTags(TagFilter.MAX_TAGS)).getTagNames().size());
+        assertRejected(orOfTags(TagFilter.MAX_TAGS + 1), "A filter can use at most " + TagFilter.MAX_TAGS + " tags");
+    }
+
+    private static String orOfTags(int count) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            names.add("tag" + i);
+        }
+        return String.join(" OR ", names);
+    }
+
+    private static void assertRejected(String expression, String message) {
+        try {
+            TagFilter.parse(expression);
+            fail("Expected '" + expression + "' to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+}
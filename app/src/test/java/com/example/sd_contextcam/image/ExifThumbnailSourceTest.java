@@ -0,0 +1,29 @@
+package com.example.sd_contextcam.image;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ExifThumbnailSourceTest {
+    @Test
+    public void standardPreviewFillsSmallCells() {
+        assertTrue(ExifThumbnailSource.largeEnough(160, 120, 240));
+        assertTrue(ExifThumbnailSource.largeEnough(120, 160, 240));
+        assertTrue(ExifThumbnailSource.largeEnough(160, 120, 128));
+    }
+
+    @Test
+    public void standardPreviewIsTooSmallForTheUsualGridCell() {
+        // 1080px-wide screen, three columns: 360px cells in the 384px bucket
+        assertFalse(ExifThumbnailSource.largeEnough(160, 120, 384));
+        assertFalse(ExifThumbnailSource.largeEnough(160, 120, 512));
+        assertTrue(ExifThumbnailSource.largeEnough(320, 240, 384));
+        assertFalse(ExifThumbnailSource.largeEnough(320, 240, 512));
+    }
+
+    @Test
+    public void tinyPreviewsAreRejected() {
+        assertFalse(ExifThumbnailSource.largeEnough(80, 60, 384));
+        assertFalse(ExifThumbnailSource.largeEnough(160, 100, 256));
+    }
+}